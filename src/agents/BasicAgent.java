@@ -1,5 +1,6 @@
 package agents;
 import hanabAI.*;
+import agents.piers.RandomUtils;
 
 
 /**
@@ -15,8 +16,8 @@ import hanabAI.*;
  **/
 public class BasicAgent implements Agent{
 
-  private Colour[] colours;
-  private int[] values;
+  protected Colour[] colours;
+  protected int[] values;
   private boolean firstAction = true;
   private int numPlayers;
   private int index;
@@ -155,7 +156,7 @@ public class BasicAgent implements Agent{
           Card c = hand[j];
           if(c!=null && c.getValue()==playable(s,c.getColour())){
             //flip coin
-            if(Math.random()>0.5){//give colour hint
+            if(RandomUtils.current().nextDouble()>0.5){//give colour hint
               boolean[] col = new boolean[hand.length];
               for(int k = 0; k< col.length; k++){
                 col[k]=c.getColour().equals((hand[k]==null?null:hand[k].getColour()));
@@ -178,7 +179,7 @@ public class BasicAgent implements Agent{
 
   //with probability 0.05 for each fuse token, play a random card
   public Action playGuess(State s) throws IllegalActionException{
-    java.util.Random rand = new java.util.Random();
+    java.util.SplittableRandom rand = RandomUtils.current();
     for(int i = 0; i<s.getFuseTokens(); i++){
       if(rand.nextDouble()<0.05){
         int cardIndex = rand.nextInt(colours.length);
@@ -193,7 +194,7 @@ public class BasicAgent implements Agent{
   //discard a random card
   public Action discardGuess(State s) throws IllegalActionException{
     if (s.getHintTokens() != 8) {
-      java.util.Random rand = new java.util.Random();
+      java.util.SplittableRandom rand = RandomUtils.current();
       int cardIndex = rand.nextInt(colours.length);
       colours[cardIndex] = null;
       values[cardIndex] = 0;
@@ -210,12 +211,12 @@ public class BasicAgent implements Agent{
         int hintee = (index+1)%numPlayers;
         Card[] hand = s.getHand(hintee);
 
-        java.util.Random rand = new java.util.Random();
+        java.util.SplittableRandom rand = RandomUtils.current();
         int cardIndex = rand.nextInt(hand.length);
         while(hand[cardIndex]==null) cardIndex = rand.nextInt(hand.length);
         Card c = hand[cardIndex];
 
-        if(Math.random()>0.5){//give colour hint
+        if(RandomUtils.current().nextDouble()>0.5){//give colour hint
           boolean[] col = new boolean[hand.length];
           for(int k = 0; k< col.length; k++){
             col[k]=c.getColour().equals((hand[k]==null?null:hand[k].getColour()));
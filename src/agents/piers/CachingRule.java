@@ -0,0 +1,55 @@
+package agents.piers;
+
+import hanabAI.Action;
+import hanabAI.IllegalActionException;
+import hanabAI.State;
+
+/* Wraps a deterministic rule so that an action it chose in one information
+ * set is reused whenever that information set comes up again, in this game
+ * or any other game sharing the cache.
+ *
+ * Only rules which never draw random numbers may be wrapped, or a hit would
+ * replay one draw forever. When the rule returns null nothing is cached, and
+ * it is asked again next time.
+ */
+public class CachingRule implements IRule {
+
+    private IRule _rule;
+    private int _playerIndex;
+    private DecisionCache _cache;
+    private long _policyKey;
+
+    /* Rules sharing a cache must have different policy names, unless they
+     * always choose the same actions.
+     */
+    public CachingRule(IRule rule, int playerIndex, DecisionCache cache, String policyName) {
+        this._rule = rule;
+        this._playerIndex = playerIndex;
+        this._cache = cache;
+        this._policyKey = DecisionCache.getPolicyKey(policyName);
+    }
+
+    @Override
+    public Action play(State s) {
+        long key = StateUtils.getInformationSetKey(s, this._playerIndex) ^ this._policyKey;
+        Action cached = this._cache.get(key);
+        if (cached != null && isLegal(s, cached)) {
+            return cached;
+        }
+
+        Action action = this._rule.play(s);
+        if (action != null) {
+            this._cache.put(key, action);
+        }
+        return action;
+    }
+
+    /* Guards against the (unlikely) case of two information sets sharing a key. */
+    private static boolean isLegal(State s, Action a) {
+        try {
+            return s.legalAction(a);
+        } catch (IllegalActionException ex) {
+            return false;
+        }
+    }
+}
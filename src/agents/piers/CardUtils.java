@@ -7,6 +7,7 @@ import hanabAI.ActionType;
 import hanabAI.Card;
 import hanabAI.Colour;
 import hanabAI.State;
+import hanabAI.Zobrist;
 
 public class CardUtils {
 
@@ -498,4 +499,22 @@ public class CardUtils {
         return CardUtils.getColourInitial(c) + ((Integer)c.getValue()).toString();
     }
 
+    /* Every card by its id. Cards are immutable, so can be shared. */
+    private static final Card[] CARDS_BY_ID = new Card[25];
+
+    static {
+        for (Card card : Card.getDeck()) {
+            CARDS_BY_ID[Zobrist.cardId(card)] = card;
+        }
+    }
+
+    /* From 0 to 24, small enough to store a card in a byte. */
+    public static int getCardId(Card c) {
+        return Zobrist.cardId(c);
+    }
+
+    public static Card getCardById(int id) {
+        return CARDS_BY_ID[id];
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package agents.piers;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hanabAI.Action;
+import hanabAI.Zobrist;
+
+/* A bounded, thread-safe map from information-set keys to the action a
+ * deterministic rule chose there. Entries are evicted with the CLOCK
+ * (second chance) algorithm. The cache is split into independently locked
+ * segments so that simulation threads sharing it rarely contend.
+ *
+ * The cache is bounded by its number of entries rather than by bytes, as
+ * the heap an entry takes depends on the JVM and on the action cached.
+ */
+public class DecisionCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private Segment[] _segments;
+    private AtomicLong _hits = new AtomicLong();
+    private AtomicLong _misses = new AtomicLong();
+
+    /* Holds at most maximumEntries, rounded up to a multiple of the number
+     * of segments.
+     */
+    public DecisionCache(int maximumEntries) {
+        int entriesPerSegment = (Math.max(maximumEntries, 1) + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+        this._segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            this._segments[i] = new Segment(entriesPerSegment);
+        }
+    }
+
+    /* Derives a key for a policy from its name, so that different agents
+     * sharing a cache don't see each other's decisions.
+     */
+    public static long getPolicyKey(String policyName) {
+        long key = 0;
+        for (int i = 0; i < policyName.length(); i++) {
+            key = Zobrist.mix(key ^ policyName.charAt(i));
+        }
+        return key;
+    }
+
+    private Segment getSegment(long key) {
+        return this._segments[(int)(key >>> 60) & (SEGMENT_COUNT - 1)];
+    }
+
+    public Action get(long key) {
+        Action action = this.getSegment(key).get(key);
+        if (action == null) {
+            this._misses.incrementAndGet();
+        } else {
+            this._hits.incrementAndGet();
+        }
+        return action;
+    }
+
+    public void put(long key, Action action) {
+        this.getSegment(key).put(key, action);
+    }
+
+    public long getHits() { return this._hits.get(); }
+    public long getMisses() { return this._misses.get(); }
+
+    public double getHitRate() {
+        long lookups = this.getHits() + this.getMisses();
+        return lookups == 0 ? 0.0 : (double)this.getHits() / (double)lookups;
+    }
+
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : this._segments) {
+            size += segment.getSize();
+        }
+        return size;
+    }
+
+    public long getCapacity() {
+        long capacity = 0;
+        for (Segment segment : this._segments) {
+            capacity += segment.getCapacity();
+        }
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "entries(%d/%d) hit_rate(%.3f)",
+            this.getSize(),
+            this.getCapacity(),
+            this.getHitRate()
+        );
+    }
+
+    private static class Segment {
+        private HashMap<Long, Integer> _index;
+        private long[] _keys;
+        private Action[] _actions;
+        private boolean[] _referenced;
+        private int _size;
+        private int _hand;
+
+        public Segment(int capacity) {
+            capacity = Math.max(capacity, 1);
+            this._index = new HashMap<Long, Integer>();
+            this._keys = new long[capacity];
+            this._actions = new Action[capacity];
+            this._referenced = new boolean[capacity];
+        }
+
+        public synchronized Action get(long key) {
+            Integer slot = this._index.get(key);
+            if (slot == null) {
+                return null;
+            }
+            this._referenced[slot] = true;
+            return this._actions[slot];
+        }
+
+        public synchronized void put(long key, Action action) {
+            Integer existing = this._index.get(key);
+            if (existing != null) {
+                this._actions[existing] = action;
+                this._referenced[existing] = true;
+                return;
+            }
+
+            int slot;
+            if (this._size < this._keys.length) {
+                slot = this._size++;
+            } else {
+                /* Sweep the clock hand round, giving recently used entries
+                 * a second chance, until we find one to evict.
+                 */
+                while (this._referenced[this._hand]) {
+                    this._referenced[this._hand] = false;
+                    this._hand = (this._hand + 1) % this._keys.length;
+                }
+                slot = this._hand;
+                this._hand = (this._hand + 1) % this._keys.length;
+                this._index.remove(this._keys[slot]);
+            }
+            this._keys[slot] = key;
+            this._actions[slot] = action;
+            this._referenced[slot] = false;
+            this._index.put(key, slot);
+        }
+
+        public synchronized int getSize() {
+            return this._size;
+        }
+
+        public int getCapacity() {
+            return this._keys.length;
+        }
+    }
+}
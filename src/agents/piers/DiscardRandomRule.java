@@ -1,7 +1,5 @@
 package agents.piers;
 
-import java.util.Random;
-
 import hanabAI.Action;
 import hanabAI.ActionType;
 import hanabAI.IllegalActionException;
@@ -26,7 +24,7 @@ public class DiscardRandomRule implements IRule {
                 this._playerIndex,
                 s.getName(this._playerIndex),
                 ActionType.DISCARD,
-                new Random().nextInt(StateUtils.getNumberOfCardsInPlayersHand(s, this._playerIndex))
+                RandomUtils.current().nextInt(StateUtils.getNumberOfCardsInPlayersHand(s, this._playerIndex))
             );
         } catch (IllegalActionException ex) {
             System.out.println(ex.getStackTrace());
@@ -2,12 +2,20 @@ package agents.piers;
 
 import agents.BasicAgent;
 import hanabAI.Action;
-import hanabAI.Agent;
+import hanabAI.ActionType;
+import hanabAI.IllegalActionException;
 import hanabAI.State;
 
+/* Defers to BasicAgent. The same BasicAgent is kept for the whole game, so
+ * rather than rebuilding its knowledge from the last round of hints on every
+ * call, it only catches up on the actions taken since it was last asked. Those
+ * may include turns where another rule (or a cache) acted for us, so our own
+ * plays and discards also clear what was known about the replaced card.
+ */
 public class FallbackRule implements IRule {
 
     private int _playerIndex;
+    private TrackingBasicAgent _agent;
 
     public FallbackRule(int playerIndex) {
         this._playerIndex = playerIndex;
@@ -15,15 +23,74 @@ public class FallbackRule implements IRule {
 
     @Override
 	public Action play(State s) {
-        FallbackRule thisRule = this;
-        BasicAgent agent = new BasicAgent() {
-            @Override
-            public String toString() {
-                return s.getName(thisRule._playerIndex);
-            }
-        };
-        agent.init(s);
-        return agent.doAction(s);
+        if (this._agent == null || s.getOrder() < this._agent._lastOrder) {
+            this._agent = new TrackingBasicAgent(this._playerIndex);
+            this._agent.init(s);
+        }
+        this._agent._name = s.getName(this._playerIndex);
+        return this._agent.doAction(s);
 	}
 
-}
\ No newline at end of file
+    private static class TrackingBasicAgent extends BasicAgent {
+
+        private int _playerIndex;
+        private int _lastOrder = 0;
+        private String _name;
+
+        public TrackingBasicAgent(int playerIndex) {
+            this._playerIndex = playerIndex;
+        }
+
+        @Override
+        public String toString() {
+            return this._name;
+        }
+
+        @Override
+        public void getHints(State s) {
+            /* Collect the unseen actions newest first, then apply them in
+             * the order they happened.
+             */
+            Action[] unseen = new Action[Math.max(0, s.getOrder() - this._lastOrder)];
+            int count = 0;
+            State t = (State)s.clone();
+            while (count < unseen.length && t.getPreviousAction() != null) {
+                unseen[count++] = t.getPreviousAction();
+                t = t.getPreviousState();
+            }
+
+            for (int i = count - 1; i >= 0; i--) {
+                Action a = unseen[i];
+                if (
+                        StateUtils.isActionOfPlayer(a, this._playerIndex)
+                        && (StateUtils.isDiscardAction(a) || StateUtils.isPlayFireworksAction(a))
+                ) {
+                    try {
+                        this.colours[a.getCard()] = null;
+                        this.values[a.getCard()] = 0;
+                    } catch (IllegalActionException ex) {
+                        System.out.println(ex.getStackTrace());
+                    }
+                } else if (StateUtils.isHintActionForPlayer(a, this._playerIndex)) {
+                    try {
+                        boolean[] hinted = a.getHintedCards();
+                        for (int j = 0; j < hinted.length; j++) {
+                            if (hinted[j]) {
+                                if (a.getType() == ActionType.HINT_COLOUR) {
+                                    this.colours[j] = a.getColour();
+                                } else {
+                                    this.values[j] = a.getValue();
+                                }
+                            }
+                        }
+                    } catch (IllegalActionException ex) {
+                        System.out.println(ex.getStackTrace());
+                    }
+                }
+            }
+
+            this._lastOrder = s.getOrder();
+        }
+    }
+
+}
@@ -3,12 +3,30 @@ package agents.piers;
 import java.util.Arrays;
 
 import agents.BasicAgent;
+import agents.piers.endgame.EndgameSolver;
 import hanabAI.Action;
 import hanabAI.Agent;
 import hanabAI.State;
 
 public class PiersAgent implements Agent {
 
+    private EndgameSolver _endgameSolver;
+    private FallbackRule _fallbackRule;
+    /* The seat and turn the fallback rule last played for */
+    private int _fallbackPlayer = -1;
+    private int _lastOrder = -1;
+
+    public PiersAgent(EndgameSolver endgameSolver) {
+        this._endgameSolver = endgameSolver;
+    }
+
+    /* Agents on the same thread share that thread's solver, rather than
+     * each allocating a transposition table of its own.
+     */
+    public PiersAgent() {
+        this(EndgameSolver.forThread());
+    }
+
     @Override
     public String toString() {
         return "PIERS";
@@ -17,7 +35,20 @@ public class PiersAgent implements Agent {
     @Override
     public Action doAction(State s) {
         int player = StateUtils.getCurrentPlayer(s);
+        /* The fallback rule remembers the game it is playing, so a new one
+         * is needed for another seat, or when the turn order goes backwards
+         * because a new game has started.
+         */
+        if (this._fallbackRule == null
+                || player != this._fallbackPlayer
+                || s.getOrder() < this._lastOrder
+        ) {
+            this._fallbackRule = new FallbackRule(player);
+            this._fallbackPlayer = player;
+        }
+        this._lastOrder = s.getOrder();
 		IRule policy = new RuleSequenceRule(
+            new SolveEndgameRule(player, this._endgameSolver),
             new PlaySafeCardRule(player),
             IfRule.atLeastNHLivesLeft(
                 2,
@@ -56,7 +87,7 @@ public class PiersAgent implements Agent {
                 (float)0.80379754
             ),
             new DiscardRandomRule(player),
-            new FallbackRule(player)
+            this._fallbackRule
         );
 
         return policy.play(s);
@@ -2,14 +2,85 @@ package agents.piers;
 
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
+/* All the randomness in evolution and play comes from here.
+ *
+ * Every thread draws from its own SplittableRandom, so threads never contend
+ * on a shared seed. Streams are derived from one master seed and a key, such
+ * as (EVOLUTION, island, generation) or (GAMES, simulation, round), rather
+ * than from the order threads happen to ask for them. So a run with the same
+ * master seed makes the same choices however its games are scheduled.
+ */
 public class RandomUtils {
 
-    private static Random _rand = new Random();
+    /* What a stream is for, the first part of its key */
+    public static final long EVOLUTION = 1;
+    public static final long DEALS = 2;
+    public static final long GAMES = 3;
+    public static final long WORKERS = 4;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static volatile long _masterSeed = System.nanoTime() ^ Runtime.getRuntime().freeMemory();
+    private static AtomicLong _nextWorker = new AtomicLong();
+
+    /* Threads nobody has given a stream to get one of their own */
+    private static ThreadLocal<SplittableRandom> _rand = new ThreadLocal<SplittableRandom>() {
+        @Override
+        protected SplittableRandom initialValue() {
+            return RandomUtils.stream(WORKERS, RandomUtils._nextWorker.getAndIncrement());
+        }
+    };
+
+    /* Stafford's variant 13 of the MurmurHash3 finaliser, as SplittableRandom
+     * uses to mix its seeds.
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public static long getMasterSeed() {
+        return RandomUtils._masterSeed;
+    }
+
+    /* Seeds the run. The calling thread starts on a fresh stream from the
+     * new seed; other threads should be given streams with use().
+     */
+    public static void setMasterSeed(long masterSeed) {
+        RandomUtils._masterSeed = masterSeed;
+        RandomUtils._nextWorker.set(0);
+        RandomUtils._rand.set(RandomUtils.stream(WORKERS, -1));
+    }
+
+    /* The stream for a key, the same every time for the same master seed. */
+    public static SplittableRandom stream(long... key) {
+        long seed = RandomUtils._masterSeed;
+        for (long part : key) {
+            seed = mix64(seed + GOLDEN_GAMMA * mix64(part + GOLDEN_GAMMA));
+        }
+        return new SplittableRandom(seed);
+    }
+
+    /* Makes the calling thread draw from the given stream, returning the
+     * stream it was using so that it can be put back.
+     */
+    public static SplittableRandom use(SplittableRandom rand) {
+        SplittableRandom previous = RandomUtils._rand.get();
+        RandomUtils._rand.set(rand);
+        return previous;
+    }
+
+    /* The calling thread's stream, for code needing more than the helpers. */
+    public static SplittableRandom current() {
+        return RandomUtils._rand.get();
+    }
 
     public static <T> T choose(T... options) {
-        int i = RandomUtils._rand.nextInt(options.length);
+        int i = RandomUtils._rand.get().nextInt(options.length);
         return options[i];
     }
 
@@ -19,10 +90,11 @@ public class RandomUtils {
         if (populationSize <= number) {
             return (ArrayList<T>)population.clone();
         }
+        SplittableRandom rand = RandomUtils._rand.get();
         ArrayList<T> result = new ArrayList<T>();
         HashSet<Integer> selected = new HashSet<Integer>();
         while (result.size() < number) {
-            int i = RandomUtils._rand.nextInt(populationSize);
+            int i = rand.nextInt(populationSize);
             if (selected.contains(i)) {
                 continue;
             }
@@ -33,19 +105,24 @@ public class RandomUtils {
     }
 
     public static <T> T choose(ArrayList<T> options) {
-        int i = RandomUtils._rand.nextInt(options.size());
+        int i = RandomUtils._rand.get().nextInt(options.size());
         return options.get(i);
     }
 
     public static boolean chance(double probability) {
-        return RandomUtils._rand.nextDouble() <= probability;
+        return RandomUtils._rand.get().nextDouble() <= probability;
     }
 
     public static int integer(int lower, int upper) {
-        return RandomUtils._rand.nextInt(upper + 1) + lower;
+        return RandomUtils._rand.get().nextInt(upper + 1) + lower;
     }
 
     public static float weight() {
-        return RandomUtils._rand.nextFloat();
+        /* As Random.nextFloat does, so never 1 */
+        return RandomUtils._rand.get().nextInt(1 << 24) / (float)(1 << 24);
+    }
+
+    public static long nextLong() {
+        return RandomUtils._rand.get().nextLong();
     }
-}
\ No newline at end of file
+}
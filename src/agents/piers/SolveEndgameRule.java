@@ -0,0 +1,32 @@
+package agents.piers;
+
+import agents.piers.endgame.EndgameSolver;
+import hanabAI.Action;
+import hanabAI.State;
+
+public class SolveEndgameRule implements IRule {
+
+    private int _playerIndex;
+    private Maybe<EndgameSolver> _solver;
+
+    public SolveEndgameRule(int playerIndex, EndgameSolver solver) {
+        this._playerIndex = playerIndex;
+        this._solver = new Maybe<EndgameSolver>(solver);
+    }
+
+    /* Uses the solver of whichever thread the game is played on. */
+    public SolveEndgameRule(int playerIndex) {
+        this._playerIndex = playerIndex;
+        this._solver = new Maybe<EndgameSolver>(null);
+    }
+
+    @Override
+    public Action play(State s) {
+        EndgameSolver solver = this._solver.hasValue() ? this._solver.getValue() : EndgameSolver.forThread();
+        /* The solver declines (returns null) until the remaining game tree
+         * is small enough to search exhaustively.
+         */
+        return solver.solve(s, this._playerIndex);
+    }
+
+}
@@ -11,6 +11,7 @@ import hanabAI.Card;
 import hanabAI.Colour;
 import hanabAI.IllegalActionException;
 import hanabAI.State;
+import hanabAI.Zobrist;
 
 public class StateUtils {
 
@@ -352,6 +353,61 @@ public class StateUtils {
         return getHintsForPlayer(s, playerIndex, null);
     }
 
+    public static int getPossibleCardsMask(CardHint hint) {
+        int mask = 0;
+        for (Card card : hint.getPossibleCards()) {
+            mask |= 1 << Zobrist.cardId(card);
+        }
+        return mask;
+    }
+
+    public static long getInformationSetKey(State s, int observerIndex) {
+        /* Start from the key of the state with the observer's hand hidden. */
+        long key = s.getZobristKey();
+        if (s.getObserver() == -1) {
+            Card[] hand = s.getHand(observerIndex);
+            for (int slot = 0; slot < hand.length; slot++) {
+                key ^= Zobrist.HAND[observerIndex][slot][Zobrist.cardId(hand[slot])]
+                    ^ Zobrist.HAND[observerIndex][slot][Zobrist.NO_CARD];
+            }
+        } else if (s.getObserver() != observerIndex) {
+            throw new IllegalArgumentException(
+                "Cannot take the view of a player other than the state's observer."
+            );
+        }
+
+        /* How we got here doesn't matter, only whose turn it is and (once
+         * the deck has run out) how many turns are left.
+         */
+        key ^= Zobrist.orderKey(s.getOrder()) ^ Zobrist.finalActionKey(s.getFinalActionIndex());
+        key ^= Zobrist.turnsLeftKey(s.getOrder(), s.getFinalActionIndex());
+        key ^= Zobrist.NEXT_PLAYER[Math.max(s.getNextPlayer(), 0)];
+
+        /* Everyone's hints are public, so the observer knows what each
+         * player (themselves included) knows about their own cards. The
+         * state keeps this up to date as hints are given.
+         */
+        return key ^ s.getKnowledgeKey();
+    }
+
+    /* The information set key worked out from the hints in the game's
+     * history, for checking the state's incremental knowledge key.
+     */
+    public static long recomputeInformationSetKey(State s, int observerIndex) {
+        long key = getInformationSetKey(s, observerIndex) ^ s.getKnowledgeKey();
+        for (int playerIndex : StateUtils.getAllPlayerIndexes(s)) {
+            CardHint[] hints = StateUtils.getHintsForPlayer(s, playerIndex);
+            for (int slot = 0; slot < hints.length; slot++) {
+                key ^= Zobrist.knowledgeKey(
+                    playerIndex,
+                    slot,
+                    StateUtils.getPossibleCardsMask(hints[slot])
+                );
+            }
+        }
+        return key;
+    }
+
     public static ArrayList<Card> getOtherPlayersCards(State s, int playerIndex) {
         ArrayList<Card> cards = new ArrayList<Card>();
         for (int otherPlayerIndex : StateUtils.getPlayersOtherThan(s, playerIndex)) {
@@ -1,2 +1,519 @@
 package agents.piers.benchmarking;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import agents.BasicAgent;
+import agents.piers.DecisionCache;
+import agents.piers.Maybe;
+import agents.piers.PiersAgent;
+import agents.piers.RandomUtils;
+import agents.piers.endgame.EndgameSolver;
+import agents.piers.evolution.DealCorpus;
+import agents.piers.evolution.EvolutionRunner;
+import agents.piers.evolution.ForkJoinSimulator;
+import agents.piers.evolution.Genome;
+import agents.piers.evolution.ISimulator;
+import agents.piers.evolution.ScoreHistogram;
+import agents.piers.evolution.SimulationCallable;
+import agents.piers.evolution.logging.EvolutionEventLog;
+import agents.piers.replay.IReplayRecorder;
+import agents.piers.replay.ReplayRecorder;
+import agents.piers.replay.ReplayStoreWriter;
+import hanabAI.Agent;
+import hanabAI.Hanabi;
+
+/* Measures how well a genome plays at every player count, with all the games
+ * played in this JVM on a pool of threads.
+ *
+ * The genome is parsed once, and deals are drawn from the master seed, so
+ * two benchmarks with the same seed play the same deals. Given a DealCorpus,
+ * every player count instead plays its first deals. Every game can also be
+ * recorded to a replay file or ReplayStore directory. The results go to
+ * standard output as JSON or CSV, for benchmark.py to plot. Run as:
+ *
+ *     BenchmarkRunner <games per player count> [threads] [seed] [json|csv] [dna] [deal corpus|-] [replay file|store/]
+ *
+ * In latency mode it instead measures how fast each type of agent plays:
+ * games per second, and the percentiles of the time taken over a single
+ * decision, overall and for every TURNS_PER_BUCKET turns of the game (late
+ * decisions replay more history). Some warm-up games are played first so
+ * the JIT has compiled the agents. Run as:
+ *
+ *     BenchmarkRunner latency <games per player count> [threads] [seed] [json|csv] [dna] [deal corpus|-] [replay file|store/]
+ */
+public class BenchmarkRunner {
+
+    public static final int MIN_PLAYERS = 2;
+    public static final int MAX_PLAYERS = 5;
+    public static final double CONFIDENCE_Z = 1.96;
+    public static final String[] AGENT_TYPES = { "basic", "piers", "genome" };
+    public static final int TURNS_PER_BUCKET = 10;
+    public static final int DEFAULT_WARMUP_GAMES = 20;
+
+    private Genome _genome;
+    private ForkJoinPool _pool;
+    private ISimulator _simulator;
+    private Maybe<DealCorpus> _dealCorpus;
+    private Maybe<IReplayRecorder> _replayRecorder;
+
+    public BenchmarkRunner(
+            Genome genome,
+            ForkJoinPool pool,
+            Maybe<DealCorpus> dealCorpus,
+            Maybe<IReplayRecorder> replayRecorder
+    ) {
+        this._genome = genome;
+        this._pool = pool;
+        this._simulator = new ForkJoinSimulator(pool);
+        this._dealCorpus = dealCorpus;
+        this._replayRecorder = replayRecorder;
+    }
+
+    public BenchmarkRunner(Genome genome, ForkJoinPool pool) {
+        this(genome, pool, new Maybe<DealCorpus>(null), new Maybe<IReplayRecorder>(null));
+    }
+
+    public static class Result {
+        public final int numberOfPlayers;
+        public final ScoreHistogram scores;
+        public final double seconds;
+
+        public Result(int numberOfPlayers, ScoreHistogram scores, double seconds) {
+            this.numberOfPlayers = numberOfPlayers;
+            this.scores = scores;
+            this.seconds = seconds;
+        }
+
+        public double getGamesPerSecond() {
+            return this.seconds > 0 ? this.scores.getCount() / this.seconds : 0;
+        }
+
+        /* Half the width of the confidence interval around the mean score. */
+        public double getConfidenceHalfWidth() {
+            long count = this.scores.getCount();
+            return count > 1 ? CONFIDENCE_Z * this.scores.getStdev() / Math.sqrt(count) : Double.NaN;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "players(%d) %s ci(+/-%.3f) games/s(%.1f)",
+                this.numberOfPlayers,
+                this.scores,
+                this.getConfidenceHalfWidth(),
+                this.getGamesPerSecond()
+            );
+        }
+    }
+
+    public static class LatencyResult {
+        public final String agentType;
+        public final int numberOfPlayers;
+        public final ScoreHistogram scores;
+        public final LatencyHistogram latencies;
+        /* The latencies of every TURNS_PER_BUCKET turns */
+        public final ArrayList<LatencyHistogram> turnLatencies;
+        public final double seconds;
+
+        public LatencyResult(
+                String agentType,
+                int numberOfPlayers,
+                ScoreHistogram scores,
+                LatencyHistogram latencies,
+                ArrayList<LatencyHistogram> turnLatencies,
+                double seconds
+        ) {
+            this.agentType = agentType;
+            this.numberOfPlayers = numberOfPlayers;
+            this.scores = scores;
+            this.latencies = latencies;
+            this.turnLatencies = turnLatencies;
+            this.seconds = seconds;
+        }
+
+        public double getGamesPerSecond() {
+            return this.seconds > 0 ? this.scores.getCount() / this.seconds : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%s players(%d) games/s(%.1f) decisions: %s",
+                this.agentType,
+                this.numberOfPlayers,
+                this.getGamesPerSecond(),
+                this.latencies
+            );
+        }
+    }
+
+    /* The same deals every time for the player count. */
+    private static long[] getDealSeeds(int numberOfPlayers, int games) {
+        SplittableRandom dealSeedGenerator = RandomUtils.stream(RandomUtils.DEALS, numberOfPlayers);
+        long[] dealSeeds = new long[games];
+        for (int i = 0; i < games; i++) {
+            dealSeeds[i] = dealSeedGenerator.nextLong();
+        }
+        return dealSeeds;
+    }
+
+    private void checkCorpusHasDeals(int games) {
+        if (this._dealCorpus.hasValue() && games > this._dealCorpus.getValue().getNumberOfDeals()) {
+            throw new IllegalArgumentException(
+                String.format("Can't play %d games from %s.", games, this._dealCorpus.getValue())
+            );
+        }
+    }
+
+    private Agent createAgent(String agentType, int playerIndex) {
+        if (agentType.equals("basic")) {
+            return new BasicAgent();
+        } else if (agentType.equals("piers")) {
+            /* A solver of its own would allocate a new transposition table
+             * every game, and latencies would measure the collector.
+             */
+            return new PiersAgent(EndgameSolver.forThread());
+        } else if (agentType.equals("genome")) {
+            return Genome.asAgent(this._genome, playerIndex);
+        }
+        throw new IllegalArgumentException(String.format("Agent type %s not recognised.", agentType));
+    }
+
+    public Result run(int numberOfPlayers, int games) {
+        this.checkCorpusHasDeals(games);
+        SimulationCallable simulation = this._dealCorpus.hasValue()
+            ? new SimulationCallable(
+                this._genome,
+                numberOfPlayers,
+                this._dealCorpus.getValue(),
+                0,
+                games,
+                new Maybe<DecisionCache>(null)
+            )
+            : new SimulationCallable(
+                this._genome,
+                numberOfPlayers,
+                getDealSeeds(numberOfPlayers, games),
+                new Maybe<DecisionCache>(null)
+            );
+        if (this._replayRecorder.hasValue()) {
+            simulation.recordReplays(this._replayRecorder.getValue());
+        }
+        ArrayList<SimulationCallable> simulations = new ArrayList<>();
+        simulations.add(simulation);
+
+        long startNanos = System.nanoTime();
+        List<SimulationCallable.Result> results = this._simulator.run(simulations);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        /* A simulation which threw has no result */
+        ScoreHistogram scores = new ScoreHistogram();
+        for (SimulationCallable.Result result : results) {
+            scores.addAll(result.scores);
+        }
+        return new Result(numberOfPlayers, scores, seconds);
+    }
+
+    /* Plays games of fresh agents of the type, timing every decision. Each
+     * game's turns are merged into the histograms once it ends.
+     */
+    public LatencyResult runLatency(String agentType, int numberOfPlayers, int games) {
+        this.checkCorpusHasDeals(games);
+        long[] dealSeeds = getDealSeeds(numberOfPlayers, games);
+        long seed = RandomUtils.nextLong();
+        ScoreHistogram scores = new ScoreHistogram();
+        LatencyHistogram latencies = new LatencyHistogram();
+        ArrayList<LatencyHistogram> turnLatencies = new ArrayList<>();
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int game = 0; game < games; game++) {
+            long dealSeed = dealSeeds[game];
+            int gameIndex = game;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    SplittableRandom previous = RandomUtils.use(RandomUtils.stream(RandomUtils.GAMES, seed, gameIndex));
+                    try {
+                        ArrayList<Long> turnNanos = new ArrayList<>();
+                        Agent[] agents = new Agent[numberOfPlayers];
+                        for (int playerIndex = 0; playerIndex < numberOfPlayers; playerIndex++) {
+                            agents[playerIndex] = new TimedAgent(
+                                BenchmarkRunner.this.createAgent(agentType, playerIndex),
+                                turnNanos
+                            );
+                        }
+                        Hanabi game = BenchmarkRunner.this._dealCorpus.hasValue()
+                            ? new Hanabi(agents, BenchmarkRunner.this._dealCorpus.getValue().getDeal(gameIndex))
+                            : new Hanabi(agents, dealSeed);
+                        int score = BenchmarkRunner.this._replayRecorder.hasValue()
+                            ? game.play(BenchmarkRunner.this._replayRecorder.getValue())
+                            : game.play();
+                        synchronized (scores) {
+                            scores.add(score);
+                            for (int turn = 0; turn < turnNanos.size(); turn++) {
+                                int bucket = turn / TURNS_PER_BUCKET;
+                                while (turnLatencies.size() <= bucket) {
+                                    turnLatencies.add(new LatencyHistogram());
+                                }
+                                turnLatencies.get(bucket).record(turnNanos.get(turn));
+                                latencies.record(turnNanos.get(turn));
+                            }
+                        }
+                        return null;
+                    } finally {
+                        RandomUtils.use(previous);
+                    }
+                }
+            });
+        }
+
+        long startNanos = System.nanoTime();
+        for (Future<Void> future : this._pool.invokeAll(tasks)) {
+            /* A game which threw is left out */
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                System.err.println(ex);
+            }
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return new LatencyResult(agentType, numberOfPlayers, scores, latencies, turnLatencies, seconds);
+    }
+
+    /* Non-finite numbers (e.g. the mean of no games) are written as
+     * missing, as neither JSON nor most CSV readers accept NaN.
+     */
+    private static String formatNumber(double value, String missing) {
+        return Double.isNaN(value) || Double.isInfinite(value)
+            ? missing
+            : String.format("%.6f", value);
+    }
+
+    private static String formatCounts(ScoreHistogram scores, String separator) {
+        StringBuilder counts = new StringBuilder();
+        for (long count : scores.getCounts()) {
+            counts.append(counts.length() > 0 ? separator : "").append(count);
+        }
+        return counts.toString();
+    }
+
+    public static String formatJson(long seed, int threads, Genome genome, List<Result> results) {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format("{%n  \"seed\": %d,%n  \"threads\": %d,%n", seed, threads));
+        json.append(String.format("  \"dna\": %s,%n  \"results\": [", EvolutionEventLog.quote(genome.formatDna())));
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append(i > 0 ? "," : "");
+            json.append(
+                String.format(
+                    "%n    {\"players\": %d, \"games\": %d, \"failures\": %d, \"mean\": %s, \"stdev\": %s, "
+                        + "\"ciLow\": %s, \"ciHigh\": %s, \"median\": %s, \"perfectGameRate\": %s, "
+                        + "\"seconds\": %s, \"gamesPerSecond\": %s, \"histogram\": [%s]}",
+                    result.numberOfPlayers,
+                    result.scores.getCount(),
+                    result.scores.getFailures(),
+                    formatNumber(result.scores.getMean(), "null"),
+                    formatNumber(result.scores.getStdev(), "null"),
+                    formatNumber(result.scores.getMean() - result.getConfidenceHalfWidth(), "null"),
+                    formatNumber(result.scores.getMean() + result.getConfidenceHalfWidth(), "null"),
+                    formatNumber(result.scores.getMedian(), "null"),
+                    formatNumber(result.scores.getPerfectGameRate(), "null"),
+                    formatNumber(result.seconds, "null"),
+                    formatNumber(result.getGamesPerSecond(), "null"),
+                    formatCounts(result.scores, ", ")
+                )
+            );
+        }
+        json.append(String.format("%n  ]%n}%n"));
+        return json.toString();
+    }
+
+    public static String formatCsv(List<Result> results) {
+        StringBuilder csv = new StringBuilder(
+            "players,games,failures,mean,stdev,ci_low,ci_high,median,perfect_game_rate,seconds,games_per_second"
+        );
+        for (int score = 0; score <= ScoreHistogram.MAX_SCORE; score++) {
+            csv.append(",score_").append(score);
+        }
+        csv.append(String.format("%n"));
+        for (Result result : results) {
+            csv.append(
+                String.format(
+                    "%d,%d,%d,%s,%s,%s,%s,%s,%s,%s,%s,%s%n",
+                    result.numberOfPlayers,
+                    result.scores.getCount(),
+                    result.scores.getFailures(),
+                    formatNumber(result.scores.getMean(), ""),
+                    formatNumber(result.scores.getStdev(), ""),
+                    formatNumber(result.scores.getMean() - result.getConfidenceHalfWidth(), ""),
+                    formatNumber(result.scores.getMean() + result.getConfidenceHalfWidth(), ""),
+                    formatNumber(result.scores.getMedian(), ""),
+                    formatNumber(result.scores.getPerfectGameRate(), ""),
+                    formatNumber(result.seconds, ""),
+                    formatNumber(result.getGamesPerSecond(), ""),
+                    formatCounts(result.scores, ",")
+                )
+            );
+        }
+        return csv.toString();
+    }
+
+    private static String formatLatencies(LatencyHistogram latencies, String format, String missing) {
+        return String.format(
+            format,
+            latencies.getCount(),
+            formatNumber(latencies.getPercentile(50) / 1e3, missing),
+            formatNumber(latencies.getPercentile(99) / 1e3, missing),
+            formatNumber(latencies.getPercentile(99.9) / 1e3, missing),
+            formatNumber(latencies.getCount() > 0 ? latencies.getMax() / 1e3 : Double.NaN, missing)
+        );
+    }
+
+    public static String formatLatencyJson(long seed, int threads, Genome genome, List<LatencyResult> results) {
+        String latencyFormat = "\"decisions\": %d, \"p50Micros\": %s, \"p99Micros\": %s, \"p999Micros\": %s, \"maxMicros\": %s";
+        StringBuilder json = new StringBuilder();
+        json.append(String.format("{%n  \"seed\": %d,%n  \"threads\": %d,%n", seed, threads));
+        json.append(String.format("  \"dna\": %s,%n  \"results\": [", EvolutionEventLog.quote(genome.formatDna())));
+        for (int i = 0; i < results.size(); i++) {
+            LatencyResult result = results.get(i);
+            StringBuilder turns = new StringBuilder();
+            for (int bucket = 0; bucket < result.turnLatencies.size(); bucket++) {
+                turns.append(bucket > 0 ? "," : "");
+                turns.append(
+                    String.format(
+                        "%n      {\"firstTurn\": %d, \"lastTurn\": %d, %s}",
+                        bucket * TURNS_PER_BUCKET,
+                        (bucket + 1) * TURNS_PER_BUCKET - 1,
+                        formatLatencies(result.turnLatencies.get(bucket), latencyFormat, "null")
+                    )
+                );
+            }
+            json.append(i > 0 ? "," : "");
+            json.append(
+                String.format(
+                    "%n    {\"agent\": %s, \"players\": %d, \"games\": %d, \"failures\": %d, \"meanScore\": %s, "
+                        + "\"seconds\": %s, \"gamesPerSecond\": %s, %s, \"turns\": [%s%n    ]}",
+                    EvolutionEventLog.quote(result.agentType),
+                    result.numberOfPlayers,
+                    result.scores.getCount(),
+                    result.scores.getFailures(),
+                    formatNumber(result.scores.getMean(), "null"),
+                    formatNumber(result.seconds, "null"),
+                    formatNumber(result.getGamesPerSecond(), "null"),
+                    formatLatencies(result.latencies, latencyFormat, "null"),
+                    turns
+                )
+            );
+        }
+        json.append(String.format("%n  ]%n}%n"));
+        return json.toString();
+    }
+
+    /* One row per agent type and player count for the whole game, with
+     * blank turns, followed by one per bucket of turns.
+     */
+    public static String formatLatencyCsv(List<LatencyResult> results) {
+        String latencyFormat = "%d,%s,%s,%s,%s";
+        StringBuilder csv = new StringBuilder(
+            String.format(
+                "agent,players,first_turn,last_turn,games,games_per_second,mean_score,decisions,p50_us,p99_us,p999_us,max_us%n"
+            )
+        );
+        for (LatencyResult result : results) {
+            String prefix = String.format(
+                "%s,%d,%%s,%%s,%d,%s,%s,",
+                result.agentType,
+                result.numberOfPlayers,
+                result.scores.getCount(),
+                formatNumber(result.getGamesPerSecond(), ""),
+                formatNumber(result.scores.getMean(), "")
+            );
+            csv.append(String.format(prefix, "", ""));
+            csv.append(formatLatencies(result.latencies, latencyFormat, "")).append(String.format("%n"));
+            for (int bucket = 0; bucket < result.turnLatencies.size(); bucket++) {
+                csv.append(String.format(prefix, bucket * TURNS_PER_BUCKET, (bucket + 1) * TURNS_PER_BUCKET - 1));
+                csv.append(formatLatencies(result.turnLatencies.get(bucket), latencyFormat, "")).append(String.format("%n"));
+            }
+        }
+        return csv.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean latency = args.length > 0 && args[0].equals("latency");
+        if (latency) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        String format = args.length > 3 ? args[3] : "json";
+        String dna = args.length > 4 ? args[4] : EvolutionRunner.defaultSeedDna;
+        Maybe<DealCorpus> dealCorpus = new Maybe<>(
+            args.length > 5 && !args[5].equals("-") ? DealCorpus.open(new File(args[5])) : null
+        );
+        /* A directory, or a path ending in one, is taken to be a store */
+        Maybe<IReplayRecorder> replayRecorder = new Maybe<>(null);
+        if (args.length > 6) {
+            File replayFile = new File(args[6]);
+            replayRecorder = new Maybe<IReplayRecorder>(
+                replayFile.isDirectory() || args[6].endsWith(File.separator)
+                    ? new ReplayStoreWriter(replayFile)
+                    : new ReplayRecorder(replayFile)
+            );
+        }
+        if (!format.equals("json") && !format.equals("csv")) {
+            throw new IllegalArgumentException(String.format("Output format %s not recognised.", format));
+        }
+
+        if (seed != 0) {
+            RandomUtils.setMasterSeed(seed);
+        }
+        seed = RandomUtils.getMasterSeed();
+        Genome genome = Genome.parseDna(dna);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        BenchmarkRunner runner = new BenchmarkRunner(genome, pool, dealCorpus, replayRecorder);
+
+        /* Progress goes to stderr so the results can be piped */
+        if (dealCorpus.hasValue()) {
+            System.err.println(String.format("Playing deals from %s", dealCorpus.getValue()));
+        }
+        if (latency) {
+            System.err.println(String.format("Timing %d games per agent and player count on %d threads, seed %d", games, threads, seed));
+            /* Warm-up games aren't recorded */
+            BenchmarkRunner warmupRunner = new BenchmarkRunner(genome, pool, dealCorpus, new Maybe<IReplayRecorder>(null));
+            ArrayList<LatencyResult> results = new ArrayList<>();
+            for (String agentType : AGENT_TYPES) {
+                for (int numberOfPlayers = MIN_PLAYERS; numberOfPlayers <= MAX_PLAYERS; numberOfPlayers++) {
+                    warmupRunner.runLatency(agentType, numberOfPlayers, Math.min(games, DEFAULT_WARMUP_GAMES));
+                    LatencyResult result = runner.runLatency(agentType, numberOfPlayers, games);
+                    System.err.println("\t" + result);
+                    results.add(result);
+                }
+            }
+            System.out.print(
+                format.equals("json") ? formatLatencyJson(seed, threads, genome, results) : formatLatencyCsv(results)
+            );
+        } else {
+            System.err.println(String.format("Benchmarking %d games per player count on %d threads, seed %d", games, threads, seed));
+            ArrayList<Result> results = new ArrayList<>();
+            for (int numberOfPlayers = MIN_PLAYERS; numberOfPlayers <= MAX_PLAYERS; numberOfPlayers++) {
+                Result result = runner.run(numberOfPlayers, games);
+                System.err.println("\t" + result);
+                results.add(result);
+            }
+            System.out.print(format.equals("json") ? formatJson(seed, threads, genome, results) : formatCsv(results));
+        }
+
+        if (replayRecorder.hasValue()) {
+            replayRecorder.getValue().close();
+            System.err.println(String.format("Recorded %s", replayRecorder.getValue()));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package agents.piers.benchmarking;
+
+/* Where MicroBenchmarks put their results so that the JIT can't prove them
+ * unused and optimise away the work that made them, as JMH's Blackhole does.
+ *
+ * Primitives are compared with two volatile fields which never hold the
+ * same value, so the comparison can't be folded but never succeeds. An
+ * object compared that way could be seen never to escape, so instead a
+ * fresh object is kept now and then, at ever rarer intervals, which makes
+ * every one of them escape at the cost of a multiply and a branch.
+ */
+public class Blackhole {
+
+    private volatile int _int1 = 1;
+    private volatile int _int2 = 2;
+    private volatile long _long1 = 1;
+    private volatile long _long2 = 2;
+    private volatile boolean _boolean1 = false;
+    private volatile boolean _boolean2 = true;
+
+    private int _random = (int)System.nanoTime();
+    private int _keepMask = 1;
+    private Object _kept;
+
+    public void consume(Object o) {
+        int random = this._random = this._random * 1664525 + 1013904223;
+        if ((random & this._keepMask) == 0) {
+            this._kept = o;
+            this._keepMask = (this._keepMask << 1) + 1;
+        }
+    }
+
+    public void consume(int i) {
+        if (i == this._int1 & i == this._int2) {
+            this._kept = i;
+        }
+    }
+
+    public void consume(long l) {
+        if (l == this._long1 & l == this._long2) {
+            this._kept = l;
+        }
+    }
+
+    public void consume(boolean b) {
+        if (b == this._boolean1 & b == this._boolean2) {
+            this._kept = b;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package agents.piers.benchmarking;
+
+import java.util.ArrayList;
+import java.util.Stack;
+
+import agents.piers.evolution.EvolutionRunner;
+import agents.piers.evolution.Genome;
+import agents.piers.evolution.GenomeCompiler;
+import hanabAI.Agent;
+import hanabAI.Card;
+import hanabAI.IllegalActionException;
+import hanabAI.State;
+
+/* Compares decisions per second of a genome interpreted as an IRule chain
+ * (Genome.asAgent) against the same genome compiled by GenomeCompiler.
+ *
+ * Usage: GenomeCompilerBenchmark [numberOfPlayers] [numberOfGames] [passes] [dna]
+ */
+public class GenomeCompilerBenchmark {
+
+    /* Plays games with the interpreted agents, keeping the state each player
+     * saw when it was asked to act.
+     */
+    private static ArrayList<State> collectStates(Agent[] agents, int numberOfGames) throws IllegalActionException {
+        ArrayList<State> states = new ArrayList<State>();
+        String[] names = new String[agents.length];
+        for (int i = 0; i < agents.length; i++) {
+            names[i] = agents[i].toString();
+        }
+        for (int game = 0; game < numberOfGames; game++) {
+            Stack<Card> deck = Card.shuffledDeck();
+            State state = new State(names, deck);
+            while (!state.gameOver()) {
+                int player = state.getNextPlayer();
+                State localState = state.hideHand(player);
+                states.add(localState);
+                state = state.nextState(agents[player].doAction(localState), deck);
+            }
+        }
+        return states;
+    }
+
+    private static double measureDecisionsPerSecond(Agent[] agents, ArrayList<State> states, int passes) {
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (State s : states) {
+                agents[s.getNextPlayer()].doAction(s);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        return (double)states.size() * passes / (elapsed / 1e9);
+    }
+
+    public static void main(String[] args) throws IllegalActionException {
+        int numberOfPlayers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int numberOfGames = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        String dna = args.length > 3 ? args[3] : EvolutionRunner.defaultSeedDna;
+
+        Genome genome = Genome.parseDna(dna);
+        Agent[] interpreted = new Agent[numberOfPlayers];
+        Agent[] compiled = new Agent[numberOfPlayers];
+        for (int i = 0; i < numberOfPlayers; i++) {
+            interpreted[i] = Genome.asAgent(genome, i);
+            compiled[i] = GenomeCompiler.asCompiledAgent(genome, i);
+        }
+
+        ArrayList<State> states = collectStates(interpreted, numberOfGames);
+
+        /* Warm up both so the JIT has compiled each before we time it. */
+        measureDecisionsPerSecond(interpreted, states, 1);
+        measureDecisionsPerSecond(compiled, states, 1);
+
+        double interpretedRate = measureDecisionsPerSecond(interpreted, states, passes);
+        double compiledRate = measureDecisionsPerSecond(compiled, states, passes);
+        System.out.println(
+            String.format(
+                "states(%d) passes(%d) interpreted(%.1f decisions/s) compiled(%.1f decisions/s) speedup(%.3fx)",
+                states.size(),
+                passes,
+                interpretedRate,
+                compiledRate,
+                compiledRate / interpretedRate
+            )
+        );
+    }
+}
@@ -0,0 +1,95 @@
+package agents.piers.benchmarking;
+
+/* A histogram of durations in nanoseconds laid out as HdrHistogram does.
+ *
+ * Values below 128ns each get a bucket. Above that, each power of two range
+ * is split into 64 buckets, so a recorded value is known to within 1.6% from
+ * nanoseconds up to minutes, in a few thousand counters. Percentiles give the
+ * top of the bucket they fall in, so they never understate a latency.
+ *
+ * Not synchronized; callers sharing one between threads must lock it.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    /* Up to 2^40ns, about 18 minutes */
+    private static final int MAX_VALUE_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private long[] _counts = new long[(MAX_VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF_COUNT];
+    private long _count;
+    private long _max;
+    private double _sum;
+
+    private static int getIndex(long value) {
+        int bucket = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1));
+        int subBucket = (int)(value >>> bucket);
+        return bucket == 0 ? subBucket : bucket * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    /* The largest value which would be counted at an index. */
+    private static long getHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int bucket = index / SUB_BUCKET_HALF_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(0, nanos), MAX_VALUE);
+        this._counts[getIndex(value)]++;
+        this._count++;
+        this._max = Math.max(this._max, value);
+        this._sum += value;
+    }
+
+    public void addAll(LatencyHistogram other) {
+        for (int i = 0; i < this._counts.length; i++) {
+            this._counts[i] += other._counts[i];
+        }
+        this._count += other._count;
+        this._max = Math.max(this._max, other._max);
+        this._sum += other._sum;
+    }
+
+    public long getCount() { return this._count; }
+    public long getMax() { return this._max; }
+
+    public double getMean() {
+        return this._count > 0 ? this._sum / this._count : Double.NaN;
+    }
+
+    /* The value at least the given percentage (0 to 100) of durations were
+     * no longer than, NaN if none were recorded.
+     */
+    public double getPercentile(double percentile) {
+        if (this._count == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * this._count));
+        long seen = 0;
+        for (int i = 0; i < this._counts.length; i++) {
+            seen += this._counts[i];
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), this._max);
+            }
+        }
+        return this._max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "n(%d) p50(%.1fus) p99(%.1fus) p99.9(%.1fus) max(%.1fus)",
+            this._count,
+            this.getPercentile(50) / 1e3,
+            this.getPercentile(99) / 1e3,
+            this.getPercentile(99.9) / 1e3,
+            this._max / 1e3
+        );
+    }
+}
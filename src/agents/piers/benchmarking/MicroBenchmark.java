@@ -0,0 +1,33 @@
+package agents.piers.benchmarking;
+
+/* A single operation to time over and over, such as cloning one state, for
+ * MicroBenchmarkRunner. The parameters say which variant it is, e.g. the
+ * player count and game phase of the state it works on.
+ *
+ * Inputs should be read from fields which aren't final, as JMH's @State
+ * fields are, so that the JIT can't treat them as constants and fold the
+ * operation away.
+ */
+public abstract class MicroBenchmark {
+
+    private String _name;
+    private String _parameters;
+
+    public MicroBenchmark(String name, String parameters) {
+        this._name = name;
+        this._parameters = parameters;
+    }
+
+    public String getName() {
+        return this._name;
+    }
+
+    public String getParameters() {
+        return this._parameters;
+    }
+
+    /* Does the operation once, giving every result to the blackhole so the
+     * JIT can't optimise the work away.
+     */
+    public abstract void run(Blackhole blackhole) throws Exception;
+}
@@ -0,0 +1,203 @@
+package agents.piers.benchmarking;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import agents.piers.RandomUtils;
+
+/* Times MicroBenchmarks in the manner of JMH. JMH itself isn't used as the
+ * tree has no Maven or Gradle build to run its annotation processor, so its
+ * main safeguards are copied here instead.
+ *
+ * Each benchmark first runs for some warm-up iterations, so the JIT has
+ * compiled it, then for some measured iterations of a fixed length. Every
+ * operation gives its results to a Blackhole so they can't be optimised
+ * away. Throughput is reported with the spread between iterations, along
+ * with the bytes allocated per operation where the JVM can count them (as
+ * JMH's GC profiler does).
+ *
+ * As JMH forks, each benchmark is run in a JVM of its own, given its exact
+ * name and parameters, so that what the JIT learnt running one (such as the
+ * classes seen at the call to run) can't shape the code measured for
+ * another. Run as:
+ *
+ *     MicroBenchmarkRunner [name filter] [iterations] [iteration millis] [seed]
+ */
+public class MicroBenchmarkRunner {
+
+    public static final int DEFAULT_WARMUP_ITERATIONS = 3;
+    public static final int DEFAULT_ITERATIONS = 5;
+    public static final long DEFAULT_ITERATION_MILLIS = 1000;
+
+    private int _warmupIterations;
+    private int _iterations;
+    private long _iterationNanos;
+    private Blackhole _blackhole = new Blackhole();
+
+    public MicroBenchmarkRunner(int warmupIterations, int iterations, long iterationMillis) {
+        this._warmupIterations = warmupIterations;
+        this._iterations = iterations;
+        this._iterationNanos = iterationMillis * 1000000;
+    }
+
+    public MicroBenchmarkRunner() {
+        this(DEFAULT_WARMUP_ITERATIONS, DEFAULT_ITERATIONS, DEFAULT_ITERATION_MILLIS);
+    }
+
+    public static class Result {
+        public final MicroBenchmark benchmark;
+        public final double[] opsPerSecond;
+        public final long operations;
+        public final double nanos;
+        public final double bytes;
+
+        public Result(MicroBenchmark benchmark, double[] opsPerSecond, long operations, double nanos, double bytes) {
+            this.benchmark = benchmark;
+            this.opsPerSecond = opsPerSecond;
+            this.operations = operations;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        public double getMeanOpsPerSecond() {
+            double sum = 0;
+            for (double ops : this.opsPerSecond) {
+                sum += ops;
+            }
+            return sum / this.opsPerSecond.length;
+        }
+
+        /* The sample standard deviation between iterations. */
+        public double getStdevOpsPerSecond() {
+            if (this.opsPerSecond.length < 2) {
+                return 0;
+            }
+            double mean = this.getMeanOpsPerSecond();
+            double sumOfSquares = 0;
+            for (double ops : this.opsPerSecond) {
+                sumOfSquares += (ops - mean) * (ops - mean);
+            }
+            return Math.sqrt(sumOfSquares / (this.opsPerSecond.length - 1));
+        }
+
+        public double getNanosPerOp() {
+            return this.nanos / this.operations;
+        }
+
+        /* NaN when the JVM doesn't count allocations. */
+        public double getBytesPerOp() {
+            return this.bytes / this.operations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%-34s %-17s %12.1f ops/s +/- %-10.1f %12.1f ns/op %12.1f B/op",
+                this.benchmark.getName(),
+                this.benchmark.getParameters(),
+                this.getMeanOpsPerSecond(),
+                this.getStdevOpsPerSecond(),
+                this.getNanosPerOp(),
+                this.getBytesPerOp()
+            );
+        }
+    }
+
+    /* The bytes the calling thread has allocated so far, or NaN. */
+    private static double getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean)threads;
+            if (hotspotThreads.isThreadAllocatedMemorySupported() && hotspotThreads.isThreadAllocatedMemoryEnabled()) {
+                return hotspotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return Double.NaN;
+    }
+
+    /* Runs the operation until the iteration's time is up, returning how
+     * many times it ran.
+     */
+    private long iterate(MicroBenchmark benchmark) throws Exception {
+        long operations = 0;
+        long endNanos = System.nanoTime() + this._iterationNanos;
+        do {
+            benchmark.run(this._blackhole);
+            operations++;
+        } while (System.nanoTime() < endNanos);
+        return operations;
+    }
+
+    public Result measure(MicroBenchmark benchmark) throws Exception {
+        for (int i = 0; i < this._warmupIterations; i++) {
+            this.iterate(benchmark);
+        }
+
+        double[] opsPerSecond = new double[this._iterations];
+        long operations = 0;
+        long nanos = 0;
+        double bytesBefore = getAllocatedBytes();
+        for (int i = 0; i < this._iterations; i++) {
+            long startNanos = System.nanoTime();
+            long iterationOperations = this.iterate(benchmark);
+            long iterationNanos = System.nanoTime() - startNanos;
+            opsPerSecond[i] = iterationOperations / (iterationNanos / 1e9);
+            operations += iterationOperations;
+            nanos += iterationNanos;
+        }
+        return new Result(benchmark, opsPerSecond, operations, nanos, getAllocatedBytes() - bytesBefore);
+    }
+
+    /* Runs the benchmark in a new JVM with the same class path and options
+     * as this one, waiting for it to print its result.
+     */
+    private static void fork(MicroBenchmark benchmark, int iterations, long iterationMillis)
+            throws IOException, InterruptedException {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MicroBenchmarkRunner.class.getName());
+        command.add(benchmark.getName());
+        command.add(Integer.toString(iterations));
+        command.add(Long.toString(iterationMillis));
+        command.add(Long.toString(RandomUtils.getMasterSeed()));
+        command.add(benchmark.getParameters());
+        int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (exitCode != 0) {
+            System.err.println(
+                String.format("%s %s failed with exit code %d.", benchmark.getName(), benchmark.getParameters(), exitCode)
+            );
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = args.length > 0 ? args[0] : "";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        long iterationMillis = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_ITERATION_MILLIS;
+        if (args.length > 3) {
+            RandomUtils.setMasterSeed(Long.parseLong(args[3]));
+        }
+        /* Given parameters too, this is the JVM forked for one benchmark */
+        boolean forked = args.length > 4;
+
+        MicroBenchmarkRunner runner = new MicroBenchmarkRunner(
+            Math.min(DEFAULT_WARMUP_ITERATIONS, iterations),
+            iterations,
+            iterationMillis
+        );
+        ArrayList<MicroBenchmark> benchmarks = MicroBenchmarks.create();
+        for (MicroBenchmark benchmark : benchmarks) {
+            if (forked) {
+                if (benchmark.getName().equals(filter) && benchmark.getParameters().equals(args[4])) {
+                    System.out.println(runner.measure(benchmark));
+                }
+            } else if (benchmark.getName().contains(filter)) {
+                fork(benchmark, iterations, iterationMillis);
+            }
+        }
+    }
+}
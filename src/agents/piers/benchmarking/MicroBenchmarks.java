@@ -0,0 +1,208 @@
+package agents.piers.benchmarking;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.Stack;
+
+import agents.piers.CardHint;
+import agents.piers.Func;
+import agents.piers.HintUtils;
+import agents.piers.PiersAgent;
+import agents.piers.RandomUtils;
+import agents.piers.StateUtils;
+import agents.piers.endgame.EndgameSolver;
+import hanabAI.Action;
+import hanabAI.Agent;
+import hanabAI.Card;
+import hanabAI.Colour;
+import hanabAI.IllegalActionException;
+import hanabAI.State;
+
+/* The engine and agent hot paths MicroBenchmarkRunner times, for every
+ * player count in the early, middle and late turns of a game.
+ *
+ * Positions are taken from one seeded game of PiersAgents per player count,
+ * so the same master seed always benchmarks the same states.
+ */
+public class MicroBenchmarks {
+
+    public static final String[] PHASES = { "early", "mid", "late" };
+    /* How far through the game each phase's position is taken */
+    private static final float[] PHASE_FRACTIONS = { (float)0.1, (float)0.5, (float)0.9 };
+
+    /* The whole game as it stood before one player's turn, and that
+     * player's view of it.
+     */
+    private static class Position {
+        public final State state;
+        public final State localState;
+        public final Stack<Card> deck;
+        public final Action action;
+
+        public Position(State state, State localState, Stack<Card> deck, Action action) {
+            this.state = state;
+            this.localState = localState;
+            this.deck = deck;
+            this.action = action;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Position> playGame(int numberOfPlayers) throws IllegalActionException {
+        SplittableRandom previous = RandomUtils.use(RandomUtils.stream(RandomUtils.GAMES, numberOfPlayers));
+        try {
+            Stack<Card> deck = Card.shuffledDeck(RandomUtils.stream(RandomUtils.DEALS, numberOfPlayers).nextLong());
+            Agent[] agents = new Agent[numberOfPlayers];
+            String[] names = new String[numberOfPlayers];
+            for (int player = 0; player < numberOfPlayers; player++) {
+                agents[player] = new PiersAgent();
+                names[player] = agents[player].toString();
+            }
+            State state = new State(names, deck);
+            ArrayList<Position> positions = new ArrayList<>();
+            while (!state.gameOver()) {
+                int player = state.getNextPlayer();
+                State localState = state.hideHand(player);
+                Action action = agents[player].doAction(localState);
+                /* Agents looking back through the game set the observer
+                 * of the states they pass, so keep copies of this turn's.
+                 */
+                positions.add(
+                    new Position(
+                        (State)state.clone(),
+                        (State)localState.clone(),
+                        (Stack<Card>)deck.clone(),
+                        action
+                    )
+                );
+                state = state.nextState(action, deck);
+            }
+            return positions;
+        } finally {
+            RandomUtils.use(previous);
+        }
+    }
+
+    private static void addPositionBenchmarks(
+            ArrayList<MicroBenchmark> benchmarks,
+            Position position,
+            String parameters
+    ) {
+        int numberOfPlayers = position.state.getPlayers().length;
+        int player = position.state.getNextPlayer();
+        int nextPlayer = (player + 1) % numberOfPlayers;
+
+        benchmarks.add(new MicroBenchmark("State.nextState", parameters) {
+            private State _state = position.state;
+            private Action _action = position.action;
+            private Stack<Card> _deck = position.deck;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run(Blackhole blackhole) throws Exception {
+                /* Playing or discarding draws from the deck, so each
+                 * operation gets its own copy.
+                 */
+                blackhole.consume(this._state.nextState(this._action, (Stack<Card>)this._deck.clone()));
+            }
+        });
+        benchmarks.add(new MicroBenchmark("State.clone", parameters) {
+            private State _state = position.state;
+
+            @Override
+            public void run(Blackhole blackhole) {
+                blackhole.consume(this._state.clone());
+            }
+        });
+        benchmarks.add(new MicroBenchmark("StateUtils.getHintsForPlayer", parameters) {
+            private State _localState = position.localState;
+            private int _player = player;
+
+            @Override
+            public void run(Blackhole blackhole) {
+                blackhole.consume(StateUtils.getHintsForPlayer(this._localState, this._player));
+            }
+        });
+        benchmarks.add(new MicroBenchmark("HintUtils.determineBestHintToGive", parameters) {
+            private State _localState = position.localState;
+            private int _nextPlayer = nextPlayer;
+            private Func<CardHint, Boolean> _anyHint = new Func<CardHint, Boolean>() {
+                @Override
+                public Boolean apply(CardHint hint) {
+                    return true;
+                }
+            };
+
+            @Override
+            public void run(Blackhole blackhole) {
+                /* Weighted as PiersAgent's hints about playable cards */
+                blackhole.consume(
+                    HintUtils.determineBestHintToGive(
+                        this._localState,
+                        this._nextPlayer,
+                        this._anyHint,
+                        (float)0.09869383,
+                        (float)0.10183655,
+                        (float)0.09780155,
+                        (float)-0.2976542,
+                        (float)0.100575045,
+                        (float)0.50125265,
+                        (float)0.796629
+                    )
+                );
+            }
+        });
+        /* A fresh agent for each decision, so that neither the endgame
+         * solver's table nor the fallback rule remember the last one. The
+         * solver is only emptied, rather than allocated again, since its
+         * table would otherwise be most of what's measured.
+         */
+        benchmarks.add(new MicroBenchmark("PiersAgent.doAction", parameters) {
+            private State _localState = position.localState;
+            private EndgameSolver _solver = new EndgameSolver();
+
+            @Override
+            public void run(Blackhole blackhole) {
+                this._solver.clear();
+                blackhole.consume(new PiersAgent(this._solver).doAction(this._localState));
+            }
+        });
+    }
+
+    public static ArrayList<MicroBenchmark> create() throws IllegalActionException {
+        ArrayList<MicroBenchmark> benchmarks = new ArrayList<>();
+
+        benchmarks.add(new MicroBenchmark("CardHint.is", "-") {
+            private CardHint _card = new CardHint(0, 0);
+            private Colour _colour = Colour.RED;
+            private int _value = 3;
+
+            @Override
+            public void run(Blackhole blackhole) {
+                blackhole.consume(CardHint.is(CardHint.is(this._card, this._colour), this._value));
+            }
+        });
+        benchmarks.add(new MicroBenchmark("CardHint.isNot", "-") {
+            private CardHint _card = new CardHint(0, 0);
+            private Colour _colour = Colour.RED;
+            private int _value = 3;
+
+            @Override
+            public void run(Blackhole blackhole) {
+                blackhole.consume(CardHint.isNot(CardHint.isNot(this._card, this._colour), this._value));
+            }
+        });
+
+        for (int numberOfPlayers = 2; numberOfPlayers <= 5; numberOfPlayers++) {
+            ArrayList<Position> positions = playGame(numberOfPlayers);
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                addPositionBenchmarks(
+                    benchmarks,
+                    positions.get((int)(PHASE_FRACTIONS[phase] * (positions.size() - 1))),
+                    String.format("players=%d,%s", numberOfPlayers, PHASES[phase])
+                );
+            }
+        }
+        return benchmarks;
+    }
+}
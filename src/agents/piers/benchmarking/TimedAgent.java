@@ -0,0 +1,35 @@
+package agents.piers.benchmarking;
+
+import java.util.ArrayList;
+
+import hanabAI.Action;
+import hanabAI.Agent;
+import hanabAI.State;
+
+/* Wraps an agent to time each of its decisions. */
+public class TimedAgent implements Agent {
+
+    private Agent _agent;
+    private ArrayList<Long> _turnNanos;
+
+    /* The agents of one game share a list, which ends up with the time
+     * taken on each turn of the game in order.
+     */
+    public TimedAgent(Agent agent, ArrayList<Long> turnNanos) {
+        this._agent = agent;
+        this._turnNanos = turnNanos;
+    }
+
+    @Override
+    public String toString() {
+        return this._agent.toString();
+    }
+
+    @Override
+    public Action doAction(State s) {
+        long startNanos = System.nanoTime();
+        Action action = this._agent.doAction(s);
+        this._turnNanos.add(System.nanoTime() - startNanos);
+        return action;
+    }
+}
@@ -0,0 +1,117 @@
+package agents.piers.benchmarking;
+
+import java.util.SplittableRandom;
+import java.util.Stack;
+
+import agents.piers.PiersAgent;
+import agents.piers.RandomUtils;
+import agents.piers.StateUtils;
+import hanabAI.Action;
+import hanabAI.Agent;
+import hanabAI.Card;
+import hanabAI.IllegalActionException;
+import hanabAI.State;
+
+/* Checks the keys State keeps up to date as a game is played against the
+ * same keys worked out from scratch, on every turn of seeded games of
+ * PiersAgents at every player count.
+ *
+ * The state's own key is compared with recomputeZobristKey, both with every
+ * hand showing and from the view of the player to move, and that player's
+ * information set key with one found by replaying the hints. Each mismatch
+ * is printed, and any makes the check exit with status 1. Run as:
+ *
+ *     ZobristCheck [games per player count] [seed]
+ */
+public class ZobristCheck {
+
+    public static final int DEFAULT_GAMES = 100;
+
+    private long _turns = 0;
+    private long _mismatches = 0;
+
+    private void check(String key, long incremental, long recomputed, int numberOfPlayers, int game, int turn) {
+        if (incremental != recomputed) {
+            this._mismatches++;
+            System.out.println(
+                String.format(
+                    "players(%d) game(%d) turn(%d): %s key %016x, recomputed %016x",
+                    numberOfPlayers,
+                    game,
+                    turn,
+                    key,
+                    incremental,
+                    recomputed
+                )
+            );
+        }
+    }
+
+    public void playGame(int numberOfPlayers, int game) throws IllegalActionException {
+        SplittableRandom previous = RandomUtils.use(RandomUtils.stream(RandomUtils.GAMES, numberOfPlayers, game));
+        try {
+            Stack<Card> deck = Card.shuffledDeck(RandomUtils.stream(RandomUtils.DEALS, numberOfPlayers, game).nextLong());
+            Agent[] agents = new Agent[numberOfPlayers];
+            String[] names = new String[numberOfPlayers];
+            for (int player = 0; player < numberOfPlayers; player++) {
+                agents[player] = new PiersAgent();
+                names[player] = agents[player].toString();
+            }
+            State state = new State(names, deck);
+            while (!state.gameOver()) {
+                int player = state.getNextPlayer();
+                State localState = state.hideHand(player);
+                int turn = state.getOrder();
+                this.check("global", state.getZobristKey(), state.recomputeZobristKey(), numberOfPlayers, game, turn);
+                this.check("local", localState.getZobristKey(), localState.recomputeZobristKey(), numberOfPlayers, game, turn);
+                this.check(
+                    "information set",
+                    StateUtils.getInformationSetKey(localState, player),
+                    StateUtils.recomputeInformationSetKey(localState, player),
+                    numberOfPlayers,
+                    game,
+                    turn
+                );
+                this._turns++;
+                Action action = agents[player].doAction(localState);
+                state = state.nextState(action, deck);
+            }
+        } finally {
+            RandomUtils.use(previous);
+        }
+    }
+
+    public long getTurns() {
+        return this._turns;
+    }
+
+    public long getMismatches() {
+        return this._mismatches;
+    }
+
+    public static void main(String[] args) throws IllegalActionException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+        if (args.length > 1) {
+            RandomUtils.setMasterSeed(Long.parseLong(args[1]));
+        }
+
+        ZobristCheck check = new ZobristCheck();
+        for (int numberOfPlayers = 2; numberOfPlayers <= 5; numberOfPlayers++) {
+            for (int game = 0; game < games; game++) {
+                check.playGame(numberOfPlayers, game);
+            }
+        }
+        System.out.println(
+            String.format(
+                "Seed %d: %d games, %d turns, %d mismatches",
+                RandomUtils.getMasterSeed(),
+                4 * games,
+                check.getTurns(),
+                check.getMismatches()
+            )
+        );
+        if (check.getMismatches() > 0) {
+            System.exit(1);
+        }
+    }
+}
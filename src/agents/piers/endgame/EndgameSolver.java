@@ -0,0 +1,640 @@
+package agents.piers.endgame;
+
+import java.util.ArrayList;
+
+import agents.piers.CardHint;
+import agents.piers.RandomUtils;
+import agents.piers.StateUtils;
+import hanabAI.Action;
+import hanabAI.ActionType;
+import hanabAI.Card;
+import hanabAI.Colour;
+import hanabAI.IllegalActionException;
+import hanabAI.State;
+import hanabAI.Zobrist;
+
+/* Exhaustive search over the last few turns of a game.
+ *
+ * Our own hand is hidden from us, so we sample a number of determinizations
+ * (a guess at our hand consistent with the hints we have been given, and an
+ * ordering of the remaining draw pile) and solve each one as a perfect
+ * information game. Since everyone is on the same team the perfect
+ * information game is a single player maximisation, which we search depth
+ * first with an optimistic score bound for cut-offs and a transposition
+ * table keyed by a Zobrist hash of the position. The action with the best
+ * average score across all the determinizations is chosen.
+ */
+public class EndgameSolver {
+
+    public static final int DEFAULT_MAXIMUM_TREE_SIZE = 200000;
+    public static final int DEFAULT_DETERMINIZATIONS = 8;
+    public static final long DEFAULT_NODE_BUDGET = 2000000;
+    public static final int DEFAULT_TABLE_LOG2_SIZE = 17;
+
+    private static final int PLAY = 0;
+    private static final int DISCARD = 1;
+    private static final int HINT = 2;
+    private static final int EMPTY = ZobristKeys.EMPTY_SLOT;
+
+    private static final EndgameStatistics _globalStatistics = new EndgameStatistics();
+
+    /* Agents made for every game share their thread's solver, rather than
+     * each allocating a table of their own.
+     */
+    private static final ThreadLocal<EndgameSolver> _threadSolvers = new ThreadLocal<EndgameSolver>() {
+        @Override
+        protected EndgameSolver initialValue() {
+            return new EndgameSolver();
+        }
+    };
+
+    private int _maximumTreeSize;
+    private int _determinizations;
+    private long _nodeBudget;
+    private TranspositionTable _table;
+    private EndgameStatistics _statistics;
+    /* The order of the last state asked about, to tell when a new game
+     * has started.
+     */
+    private int _lastOrder = -1;
+
+    /* The position being searched, mutated in place and restored on the
+     * way back up the tree.
+     */
+    private int _numberOfPlayers;
+    private int[][] _hands;
+    private int[] _fireworks;
+    private int[] _available;
+    private int[] _deck;
+    private int _deckPointer;
+    private int _hints;
+    private int _fuse;
+    private int _order;
+    private int _finalAction;
+    private int _nextPlayer;
+    private long _key;
+    private long _nodes;
+    private boolean _aborted;
+
+    public EndgameSolver(int maximumTreeSize, int determinizations, long nodeBudget, int tableLog2Size) {
+        this._maximumTreeSize = maximumTreeSize;
+        this._determinizations = determinizations;
+        this._nodeBudget = nodeBudget;
+        this._table = new TranspositionTable(tableLog2Size);
+        this._statistics = new EndgameStatistics();
+    }
+
+    public EndgameSolver() {
+        this(
+            DEFAULT_MAXIMUM_TREE_SIZE,
+            DEFAULT_DETERMINIZATIONS,
+            DEFAULT_NODE_BUDGET,
+            DEFAULT_TABLE_LOG2_SIZE
+        );
+    }
+
+    /* Forgets every position searched so far. */
+    public void clear() {
+        this._table.clear();
+    }
+
+    public static EndgameSolver forThread() {
+        return _threadSolvers.get();
+    }
+
+    public static EndgameStatistics getGlobalStatistics() {
+        return _globalStatistics;
+    }
+
+    public EndgameStatistics getStatistics() {
+        return this._statistics;
+    }
+
+    public static int getCardId(Card c) {
+        return Zobrist.cardId(c);
+    }
+
+    public static int getCardCount(int cardId) {
+        int value = cardId % 5 + 1;
+        return value == 1 ? 3 : (value < 5 ? 2 : 1);
+    }
+
+    public static int getNumberOfCardsInDrawPile(State s) {
+        if (s.getFinalActionIndex() != -1) {
+            return 0;
+        }
+        /* Until the deck runs out every player holds a full hand. */
+        int numberOfPlayers = StateUtils.getNumberOfPlayers(s);
+        int drawn = numberOfPlayers * s.getHand(0).length + s.getDiscards().size();
+        for (Colour colour : Colour.values()) {
+            drawn += s.getFirework(colour).size();
+        }
+        return 50 - drawn;
+    }
+
+    public static int getNumberOfTurnsLeft(State s) {
+        if (s.getFinalActionIndex() != -1) {
+            return s.getFinalActionIndex() - s.getOrder();
+        }
+        /* Hints don't draw cards, so this is only a bound on the number of
+         * turns which can play or discard a card.
+         */
+        return getNumberOfCardsInDrawPile(s) + StateUtils.getNumberOfPlayers(s);
+    }
+
+    public boolean isTreeSmallEnough(State s) {
+        int branching = 2 * s.getHand(0).length + 1;
+        return Math.pow(branching, getNumberOfTurnsLeft(s)) <= this._maximumTreeSize;
+    }
+
+    public Action solve(State s, int playerIndex) {
+        /* A game's turns only go forward, so going back means a new game,
+         * whose positions won't be any from the last.
+         */
+        if (s.getOrder() < this._lastOrder) {
+            this.clear();
+        }
+        this._lastOrder = s.getOrder();
+
+        if (s.gameOver() || !this.isTreeSmallEnough(s)) {
+            return null;
+        }
+
+        long startTime = System.nanoTime();
+        long startProbes = this._table.getProbes();
+        long startHits = this._table.getHits();
+        this._nodes = 0;
+        this._aborted = false;
+
+        int numberOfPlayers = StateUtils.getNumberOfPlayers(s);
+        int handSize = s.getHand(playerIndex).length;
+        boolean[] emptyOwnSlots = getEmptySlots(s, playerIndex, handSize);
+
+        /* Everything we can't see could be in our hand or the draw pile. */
+        int[] unseen = new int[ZobristKeys.CARD_TYPES];
+        for (int cardId = 0; cardId < unseen.length; cardId++) {
+            unseen[cardId] = getCardCount(cardId);
+        }
+        for (Card card : s.getDiscards()) {
+            unseen[getCardId(card)]--;
+        }
+        for (Colour colour : Colour.values()) {
+            for (Card card : s.getFirework(colour)) {
+                unseen[getCardId(card)]--;
+            }
+        }
+        int[][] visibleHands = new int[numberOfPlayers][handSize];
+        for (int player = 0; player < numberOfPlayers; player++) {
+            Card[] hand = s.getHand(player);
+            for (int slot = 0; slot < handSize; slot++) {
+                if (player == playerIndex || hand[slot] == null) {
+                    visibleHands[player][slot] = EMPTY;
+                } else {
+                    visibleHands[player][slot] = getCardId(hand[slot]);
+                    unseen[visibleHands[player][slot]]--;
+                }
+            }
+        }
+        boolean[][] possibleOwnCards = getPossibleOwnCards(s, playerIndex, handSize);
+        int drawPileSize = getNumberOfCardsInDrawPile(s);
+
+        /* Moves at the root, encoded as type * 8 + slot. */
+        ArrayList<Integer> rootMoves = new ArrayList<Integer>();
+        for (int slot = 0; slot < handSize; slot++) {
+            if (!emptyOwnSlots[slot]) {
+                rootMoves.add(PLAY * 8 + slot);
+            }
+        }
+        if (s.getHintTokens() > 0) {
+            rootMoves.add(HINT * 8);
+        }
+        if (StateUtils.isDiscardActionAllowed(s)) {
+            for (int slot = 0; slot < handSize; slot++) {
+                if (!emptyOwnSlots[slot]) {
+                    rootMoves.add(DISCARD * 8 + slot);
+                }
+            }
+        }
+
+        long[] totals = new long[rootMoves.size()];
+        int samples = 0;
+        for (int d = 0; d < this._determinizations && !this._aborted; d++) {
+            int[][] hands = new int[numberOfPlayers][];
+            for (int player = 0; player < numberOfPlayers; player++) {
+                hands[player] = visibleHands[player].clone();
+            }
+            int[] deck = this.determinize(
+                unseen,
+                possibleOwnCards,
+                emptyOwnSlots,
+                hands[playerIndex],
+                drawPileSize
+            );
+            this.setPosition(s, hands, deck);
+
+            long[] values = new long[rootMoves.size()];
+            for (int i = 0; i < rootMoves.size() && !this._aborted; i++) {
+                values[i] = this.searchMove(rootMoves.get(i), -1);
+            }
+            if (this._aborted) {
+                break;
+            }
+            for (int i = 0; i < values.length; i++) {
+                totals[i] += values[i];
+            }
+            samples++;
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        long probes = this._table.getProbes() - startProbes;
+        long hits = this._table.getHits() - startHits;
+        this._statistics.record(this._nodes, probes, hits, elapsed);
+        _globalStatistics.record(this._nodes, probes, hits, elapsed);
+
+        if (samples == 0 || rootMoves.isEmpty()) {
+            return null;
+        }
+
+        /* Prefer hints, then plays, then discards when scores tie. */
+        int bestMove = -1;
+        long bestTotal = -1;
+        for (int type : new int[] { HINT, PLAY, DISCARD }) {
+            for (int i = 0; i < rootMoves.size(); i++) {
+                if (rootMoves.get(i) / 8 == type && totals[i] > bestTotal) {
+                    bestTotal = totals[i];
+                    bestMove = rootMoves.get(i);
+                }
+            }
+        }
+
+        try {
+            if (bestMove / 8 == HINT) {
+                return createHintAction(s, playerIndex);
+            }
+            return new Action(
+                playerIndex,
+                s.getName(playerIndex),
+                bestMove / 8 == PLAY ? ActionType.PLAY : ActionType.DISCARD,
+                bestMove % 8
+            );
+        } catch (IllegalActionException ex) {
+            System.out.println(ex.getStackTrace());
+            return null;
+        }
+    }
+
+    /* The engine empties the slot of any card played or discarded once the
+     * draw pile has run out (including the turn which drew the last card).
+     */
+    private static boolean[] getEmptySlots(State s, int playerIndex, int handSize) {
+        boolean[] empty = new boolean[handSize];
+        State t = s;
+        while (t.getFinalActionIndex() != -1 && t.getOrder() > 0) {
+            Action a = t.getPreviousAction();
+            if (a.getPlayer() == playerIndex
+                    && (a.getType() == ActionType.PLAY || a.getType() == ActionType.DISCARD)
+            ) {
+                try {
+                    empty[a.getCard()] = true;
+                } catch (IllegalActionException ex) {
+                    System.out.println(ex.getStackTrace());
+                }
+            }
+            t = t.getPreviousState();
+        }
+        return empty;
+    }
+
+    private static boolean[][] getPossibleOwnCards(State s, int playerIndex, int handSize) {
+        boolean[][] possible = new boolean[handSize][ZobristKeys.CARD_TYPES];
+        CardHint[] hints = StateUtils.getHintsForPlayer(s, playerIndex);
+        for (int slot = 0; slot < handSize && slot < hints.length; slot++) {
+            for (Card card : hints[slot].getPossibleCards()) {
+                possible[slot][getCardId(card)] = true;
+            }
+        }
+        return possible;
+    }
+
+    /* Deals our own hand (consistent with our hints where possible) and
+     * shuffles what is left into the draw pile.
+     */
+    private int[] determinize(
+            int[] unseen,
+            boolean[][] possibleOwnCards,
+            boolean[] emptyOwnSlots,
+            int[] ownHand,
+            int drawPileSize
+    ) {
+        int[] pool = unseen.clone();
+        for (int slot = 0; slot < ownHand.length; slot++) {
+            if (emptyOwnSlots[slot]) {
+                continue;
+            }
+            int cardId = this.sampleCard(pool, possibleOwnCards[slot]);
+            if (cardId == -1) {
+                cardId = this.sampleCard(pool, null);
+            }
+            if (cardId == -1) {
+                continue;
+            }
+            ownHand[slot] = cardId;
+            pool[cardId]--;
+        }
+
+        int poolSize = 0;
+        for (int count : pool) {
+            poolSize += Math.max(count, 0);
+        }
+        int[] remaining = new int[poolSize];
+        int n = 0;
+        for (int cardId = 0; cardId < pool.length; cardId++) {
+            for (int i = 0; i < pool[cardId]; i++) {
+                remaining[n++] = cardId;
+            }
+        }
+        for (int i = remaining.length - 1; i > 0; i--) {
+            int j = RandomUtils.current().nextInt(i + 1);
+            int swap = remaining[i];
+            remaining[i] = remaining[j];
+            remaining[j] = swap;
+        }
+
+        int[] deck = new int[Math.min(drawPileSize, remaining.length)];
+        System.arraycopy(remaining, 0, deck, 0, deck.length);
+        return deck;
+    }
+
+    private int sampleCard(int[] pool, boolean[] allowed) {
+        int total = 0;
+        for (int cardId = 0; cardId < pool.length; cardId++) {
+            if (pool[cardId] > 0 && (allowed == null || allowed[cardId])) {
+                total += pool[cardId];
+            }
+        }
+        if (total == 0) {
+            return -1;
+        }
+        int pick = RandomUtils.current().nextInt(total);
+        for (int cardId = 0; cardId < pool.length; cardId++) {
+            if (pool[cardId] > 0 && (allowed == null || allowed[cardId])) {
+                pick -= pool[cardId];
+                if (pick < 0) {
+                    return cardId;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static Action createHintAction(State s, int playerIndex) throws IllegalActionException {
+        /* Perfect information search treats a hint as passing the turn, so
+         * we may as well point someone at a playable card if we can.
+         */
+        int numberOfPlayers = StateUtils.getNumberOfPlayers(s);
+        for (int i = 1; i < numberOfPlayers; i++) {
+            int hintee = (playerIndex + i) % numberOfPlayers;
+            Card[] hand = s.getHand(hintee);
+            for (Card card : hand) {
+                if (card != null && s.getFirework(card.getColour()).size() == card.getValue() - 1) {
+                    boolean[] pointedAt = new boolean[hand.length];
+                    for (int k = 0; k < hand.length; k++) {
+                        pointedAt[k] = hand[k] != null && hand[k].getValue() == card.getValue();
+                    }
+                    return new Action(
+                        playerIndex,
+                        s.getName(playerIndex),
+                        ActionType.HINT_VALUE,
+                        hintee,
+                        pointedAt,
+                        card.getValue()
+                    );
+                }
+            }
+        }
+
+        int hintee = (playerIndex + 1) % numberOfPlayers;
+        Card[] hand = s.getHand(hintee);
+        Colour colour = Colour.BLUE;
+        for (Card card : hand) {
+            if (card != null) {
+                colour = card.getColour();
+                break;
+            }
+        }
+        boolean[] pointedAt = new boolean[hand.length];
+        for (int k = 0; k < hand.length; k++) {
+            pointedAt[k] = hand[k] != null && hand[k].getColour() == colour;
+        }
+        return new Action(
+            playerIndex,
+            s.getName(playerIndex),
+            ActionType.HINT_COLOUR,
+            hintee,
+            pointedAt,
+            colour
+        );
+    }
+
+    private void setPosition(State s, int[][] hands, int[] deck) {
+        this._numberOfPlayers = hands.length;
+        this._hands = hands;
+        this._deck = deck;
+        this._deckPointer = 0;
+        this._hints = s.getHintTokens();
+        this._fuse = s.getFuseTokens();
+        this._order = s.getOrder();
+        this._finalAction = s.getFinalActionIndex();
+        this._nextPlayer = s.getNextPlayer();
+        this._fireworks = new int[5];
+        this._available = new int[ZobristKeys.CARD_TYPES];
+
+        long key = 0;
+        for (Colour colour : Colour.values()) {
+            this._fireworks[colour.ordinal()] = s.getFirework(colour).size();
+            key ^= ZobristKeys.FIREWORK[colour.ordinal()][this._fireworks[colour.ordinal()]];
+        }
+        for (int player = 0; player < hands.length; player++) {
+            for (int slot = 0; slot < hands[player].length; slot++) {
+                int cardId = hands[player][slot];
+                key ^= ZobristKeys.HAND[player][slot][cardId];
+                if (cardId != EMPTY) {
+                    this._available[cardId]++;
+                }
+            }
+        }
+        for (int i = 0; i < deck.length; i++) {
+            key ^= ZobristKeys.DECK[i][deck[i]];
+            this._available[deck[i]]++;
+        }
+        key ^= ZobristKeys.HINTS[this._hints];
+        key ^= ZobristKeys.FUSE[this._fuse];
+        this._key = key ^ this.turnKey();
+    }
+
+    private long turnKey() {
+        return ZobristKeys.NEXT_PLAYER[this._nextPlayer]
+            ^ Zobrist.turnsLeftKey(this._order, this._finalAction);
+    }
+
+    private int score() {
+        int score = 0;
+        for (int height : this._fireworks) {
+            score += height;
+        }
+        return score;
+    }
+
+    private int upperBound(int score) {
+        int turns = this._finalAction == -1
+            ? (this._deck.length - this._deckPointer) + this._numberOfPlayers
+            : this._finalAction - this._order;
+        int gain = 0;
+        for (int colour = 0; colour < 5; colour++) {
+            for (int value = this._fireworks[colour] + 1; value <= 5; value++) {
+                if (this._available[colour * 5 + value - 1] == 0) {
+                    break;
+                }
+                gain++;
+            }
+        }
+        return score + Math.min(gain, turns);
+    }
+
+    /* Returns the exact score reachable from the current position if it is
+     * greater than alpha, otherwise some value no greater than alpha.
+     */
+    private int search(int alpha) {
+        if (++this._nodes > this._nodeBudget) {
+            this._aborted = true;
+            return 0;
+        }
+        if (this._fuse == 0) {
+            return 0;
+        }
+        int score = this.score();
+        if (score == 25 || this._order == this._finalAction) {
+            return score;
+        }
+
+        int cached = this._table.probe(this._key);
+        if (cached >= 0) {
+            return cached;
+        }
+        int bound = this.upperBound(score);
+        if (bound <= alpha) {
+            return bound;
+        }
+
+        int best = -1;
+        int[] hand = this._hands[this._nextPlayer];
+        for (int slot = 0; slot < hand.length && best < bound; slot++) {
+            if (hand[slot] != EMPTY) {
+                best = Math.max(best, this.searchMove(PLAY * 8 + slot, Math.max(alpha, best)));
+            }
+        }
+        if (this._hints > 0 && best < bound) {
+            best = Math.max(best, this.searchMove(HINT * 8, Math.max(alpha, best)));
+        }
+        if (this._hints < 8) {
+            for (int slot = 0; slot < hand.length && best < bound; slot++) {
+                if (hand[slot] != EMPTY) {
+                    best = Math.max(best, this.searchMove(DISCARD * 8 + slot, Math.max(alpha, best)));
+                }
+            }
+        }
+
+        if (best > alpha && !this._aborted) {
+            this._table.store(this._key, best);
+        }
+        return best;
+    }
+
+    /* Makes the move, searches the resulting position and unmakes it. */
+    private int searchMove(int move, int alpha) {
+        int type = move / 8;
+        int slot = move % 8;
+        int player = this._nextPlayer;
+        int card = this._hands[player][slot];
+        int savedHints = this._hints;
+        int savedFuse = this._fuse;
+        int savedFinalAction = this._finalAction;
+        int savedDeckPointer = this._deckPointer;
+        long savedKey = this._key;
+        int extendedColour = -1;
+        int lostCard = EMPTY;
+
+        this._key ^= this.turnKey();
+        if (type == HINT) {
+            this.setHints(this._hints - 1);
+        } else {
+            int colour = card / 5;
+            int value = card % 5 + 1;
+            this._available[card]--;
+            if (type == PLAY) {
+                if (this._fireworks[colour] == value - 1) {
+                    this._key ^= ZobristKeys.FIREWORK[colour][value - 1] ^ ZobristKeys.FIREWORK[colour][value];
+                    this._fireworks[colour] = value;
+                    extendedColour = colour;
+                    if (value == 5 && this._hints < 8) {
+                        this.setHints(this._hints + 1);
+                    }
+                } else {
+                    this._key ^= ZobristKeys.FUSE[this._fuse] ^ ZobristKeys.FUSE[this._fuse - 1];
+                    this._fuse--;
+                }
+            } else {
+                this.setHints(this._hints + 1);
+            }
+
+            int drawn = EMPTY;
+            if (this._deckPointer < this._deck.length) {
+                drawn = this._deck[this._deckPointer];
+                this._key ^= ZobristKeys.DECK[this._deckPointer][drawn];
+                this._deckPointer++;
+            }
+            if (this._deckPointer == this._deck.length) {
+                if (this._finalAction == -1) {
+                    this._finalAction = this._order + this._numberOfPlayers;
+                }
+                /* The engine loses the last card drawn. */
+                if (drawn != EMPTY) {
+                    this._available[drawn]--;
+                    lostCard = drawn;
+                }
+                drawn = EMPTY;
+            }
+            this._key ^= ZobristKeys.HAND[player][slot][card] ^ ZobristKeys.HAND[player][slot][drawn];
+            this._hands[player][slot] = drawn;
+        }
+        this._order++;
+        this._nextPlayer = (player + 1) % this._numberOfPlayers;
+        this._key ^= this.turnKey();
+
+        int value = this.search(alpha);
+
+        this._nextPlayer = player;
+        this._order--;
+        if (type != HINT) {
+            this._hands[player][slot] = card;
+            this._available[card]++;
+        }
+        if (lostCard != EMPTY) {
+            this._available[lostCard]++;
+        }
+        if (extendedColour != -1) {
+            this._fireworks[extendedColour]--;
+        }
+        this._hints = savedHints;
+        this._fuse = savedFuse;
+        this._finalAction = savedFinalAction;
+        this._deckPointer = savedDeckPointer;
+        this._key = savedKey;
+        return value;
+    }
+
+    private void setHints(int hints) {
+        this._key ^= ZobristKeys.HINTS[this._hints] ^ ZobristKeys.HINTS[hints];
+        this._hints = hints;
+    }
+}
@@ -0,0 +1,41 @@
+package agents.piers.endgame;
+
+public class EndgameStatistics {
+
+    private long _searches;
+    private long _nodes;
+    private long _probes;
+    private long _hits;
+    private long _nanos;
+
+    public synchronized void record(long nodes, long probes, long hits, long nanos) {
+        this._searches++;
+        this._nodes += nodes;
+        this._probes += probes;
+        this._hits += hits;
+        this._nanos += nanos;
+    }
+
+    public synchronized long getSearches() { return this._searches; }
+    public synchronized long getNodes() { return this._nodes; }
+
+    public synchronized double getNodesPerSecond() {
+        return this._nanos == 0 ? 0.0 : this._nodes / (this._nanos / 1e9);
+    }
+
+    public synchronized double getHitRate() {
+        return this._probes == 0 ? 0.0 : (double)this._hits / (double)this._probes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "searches(%d) nodes(%d) nodes/s(%.0f) tt_hit_rate(%.3f) time(%.3fs)",
+            this._searches,
+            this._nodes,
+            this.getNodesPerSecond(),
+            this.getHitRate(),
+            this._nanos / 1e9
+        );
+    }
+}
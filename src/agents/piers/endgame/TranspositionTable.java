@@ -0,0 +1,52 @@
+package agents.piers.endgame;
+
+import java.util.Arrays;
+
+/* A fixed size, always-replace table from position keys to the exact score
+ * that can be reached from that position.
+ */
+public class TranspositionTable {
+
+    private long[] _keys;
+    private byte[] _values;
+    private int _mask;
+    private long _probes;
+    private long _hits;
+
+    public TranspositionTable(int log2Size) {
+        int size = 1 << log2Size;
+        this._keys = new long[size];
+        this._values = new byte[size];
+        this._mask = size - 1;
+        Arrays.fill(this._values, (byte)-1);
+    }
+
+    private int index(long key) {
+        return (int)(key ^ (key >>> 32)) & this._mask;
+    }
+
+    /* Returns the stored score for the key, or -1 if there is none. */
+    public int probe(long key) {
+        this._probes++;
+        int i = this.index(key);
+        if (this._values[i] >= 0 && this._keys[i] == key) {
+            this._hits++;
+            return this._values[i];
+        }
+        return -1;
+    }
+
+    /* Forgets every stored score. */
+    public void clear() {
+        Arrays.fill(this._values, (byte)-1);
+    }
+
+    public void store(long key, int value) {
+        int i = this.index(key);
+        this._keys[i] = key;
+        this._values[i] = (byte)value;
+    }
+
+    public long getProbes() { return this._probes; }
+    public long getHits() { return this._hits; }
+}
@@ -0,0 +1,30 @@
+package agents.piers.endgame;
+
+import java.util.Random;
+
+import hanabAI.Zobrist;
+
+/* Keys for each component of an endgame position. Everything except the
+ * draw pile is shared with the keys used to hash game states.
+ */
+class ZobristKeys {
+
+    public static final int CARD_TYPES = Zobrist.CARD_TYPES;
+    public static final int EMPTY_SLOT = Zobrist.NO_CARD;
+
+    public static final long[][][] HAND = Zobrist.HAND;
+    public static final long[][] FIREWORK = Zobrist.FIREWORK;
+    public static final long[] HINTS = Zobrist.HINTS;
+    public static final long[] FUSE = Zobrist.FUSE;
+    public static final long[] NEXT_PLAYER = Zobrist.NEXT_PLAYER;
+    public static final long[][] DECK = new long[50][CARD_TYPES];
+
+    static {
+        Random random = new Random(0x5EED_CAFEL);
+        for (long[] position : DECK) {
+            for (int i = 0; i < position.length; i++) {
+                position[i] = random.nextLong();
+            }
+        }
+    }
+}
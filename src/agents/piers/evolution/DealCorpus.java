@@ -0,0 +1,145 @@
+package agents.piers.evolution;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.SplittableRandom;
+import java.util.Stack;
+
+import agents.piers.CardUtils;
+import agents.piers.RandomUtils;
+import hanabAI.Card;
+
+/* A file of shuffled decks, so that different agents, or versions of a
+ * genome, can be made to play exactly the same deals and be compared deal by
+ * deal.
+ *
+ * After a small header each deal is DECK_SIZE bytes, the ids of its cards
+ * (as CardUtils.getCardId gives them) from the bottom of the deck to the top. The
+ * file is memory-mapped, so decks are read straight out of the page cache and
+ * any number of threads can read them at once. Run as:
+ *
+ *     DealCorpus <file> <deals> [seed]
+ */
+public class DealCorpus {
+
+    public static final int DECK_SIZE = 50;
+
+    private static final int MAGIC = 0x4844434F;
+    private static final int VERSION = 1;
+    /* Magic, version, number of deals and seed */
+    private static final int HEADER_SIZE = 20;
+    /* A single mapping can't be larger than 2GB */
+    public static final int MAX_DEALS = (Integer.MAX_VALUE - HEADER_SIZE) / DECK_SIZE;
+
+    private File _file;
+    private MappedByteBuffer _deals;
+    private int _numberOfDeals;
+    private long _seed;
+
+    private DealCorpus(File file, MappedByteBuffer deals, int numberOfDeals, long seed) {
+        this._file = file;
+        this._deals = deals;
+        this._numberOfDeals = numberOfDeals;
+        this._seed = seed;
+    }
+
+    /* Writes a corpus of decks shuffled as Card.shuffledDeck would for
+     * seeds drawn from the given one, so the same seed always gives the same
+     * corpus.
+     */
+    public static void generate(File file, int numberOfDeals, long seed) throws IOException {
+        if (numberOfDeals < 0 || numberOfDeals > MAX_DEALS) {
+            throw new IllegalArgumentException(
+                String.format("A deal corpus holds between 0 and %d deals, not %d.", MAX_DEALS, numberOfDeals)
+            );
+        }
+        if (file.getAbsoluteFile().getParentFile() != null && !file.getAbsoluteFile().getParentFile().exists()) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        SplittableRandom dealSeedGenerator = new SplittableRandom(seed);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, false)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numberOfDeals);
+            out.writeLong(seed);
+            byte[] deck = new byte[DECK_SIZE];
+            for (int deal = 0; deal < numberOfDeals; deal++) {
+                Stack<Card> shuffled = Card.shuffledDeck(dealSeedGenerator.nextLong());
+                for (int i = 0; i < DECK_SIZE; i++) {
+                    deck[i] = (byte)CardUtils.getCardId(shuffled.get(i));
+                }
+                out.write(deck);
+            }
+        }
+    }
+
+    public static DealCorpus open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(String.format("%s is not a deal corpus.", file));
+            }
+            /* The mapping stays valid once the channel is closed */
+            MappedByteBuffer deals = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (deals.getInt(0) != MAGIC || deals.getInt(4) != VERSION) {
+                throw new IOException(String.format("%s is not a version %d deal corpus.", file, VERSION));
+            }
+            int numberOfDeals = deals.getInt(8);
+            if (numberOfDeals < 0 || channel.size() != HEADER_SIZE + (long)numberOfDeals * DECK_SIZE) {
+                throw new IOException(String.format("%s should hold %d deals but is %d bytes.", file, numberOfDeals, channel.size()));
+            }
+            return new DealCorpus(file, deals, numberOfDeals, deals.getLong(12));
+        }
+    }
+
+    public File getFile() {
+        return this._file;
+    }
+
+    public int getNumberOfDeals() {
+        return this._numberOfDeals;
+    }
+
+    public long getSeed() {
+        return this._seed;
+    }
+
+    /* A fresh deck for the deal, numbered from 0, which a game can draw
+     * from. Only absolute reads are made of the mapping, so this is safe to
+     * call from any thread.
+     */
+    public Stack<Card> getDeal(int deal) {
+        if (deal < 0 || deal >= this._numberOfDeals) {
+            throw new IndexOutOfBoundsException(
+                String.format("Deal %d is not in a corpus of %d deals.", deal, this._numberOfDeals)
+            );
+        }
+        int offset = HEADER_SIZE + deal * DECK_SIZE;
+        Stack<Card> deck = new Stack<Card>();
+        deck.ensureCapacity(DECK_SIZE);
+        for (int i = 0; i < DECK_SIZE; i++) {
+            deck.push(CardUtils.getCardById(this._deals.get(offset + i)));
+        }
+        return deck;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s deals(%d) seed(%d)", this._file, this._numberOfDeals, this._seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        File file = new File(args[0]);
+        int numberOfDeals = Integer.parseInt(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : RandomUtils.getMasterSeed();
+        DealCorpus.generate(file, numberOfDeals, seed);
+        System.err.println(String.format("Wrote %s", DealCorpus.open(file)));
+    }
+}
@@ -0,0 +1,193 @@
+package agents.piers.evolution;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+import agents.piers.Maybe;
+
+/* Everything EvolutionRunner needs to carry on from the end of a generation:
+ * the population, with each member's id in the run's lineage (which is saved
+ * next to the checkpoint), the fitness each member was last measured at
+ * (which a resumed run's fitness cache starts from), the master seed the
+ * random streams come from and the initial population baseline.
+ *
+ * Written in a small binary format to a temporary file which then replaces
+ * the previous checkpoint, so a run killed mid-write still has the last one.
+ */
+public class EvolutionCheckpoint {
+
+    public static final String FILE_NAME = "checkpoint.bin";
+
+    private static final int MAGIC = 0x4843504B;
+    private static final int VERSION = 5;
+
+    public final int generation;
+    public final ArrayList<Long> populationIds;
+    public final ArrayList<String> populationDnas;
+    public final ArrayList<ScoreHistogram> populationFitness;
+    public final ScoreHistogram initialPopulationFitness;
+    public final FitnessStatistics initialPopulationAverageFitness;
+    public final long masterSeed;
+
+    public EvolutionCheckpoint(
+            int generation,
+            ArrayList<Long> populationIds,
+            ArrayList<String> populationDnas,
+            ArrayList<ScoreHistogram> populationFitness,
+            ScoreHistogram initialPopulationFitness,
+            FitnessStatistics initialPopulationAverageFitness,
+            long masterSeed
+    ) {
+        this.generation = generation;
+        this.populationIds = populationIds;
+        this.populationDnas = populationDnas;
+        this.populationFitness = populationFitness;
+        this.initialPopulationFitness = initialPopulationFitness;
+        this.initialPopulationAverageFitness = initialPopulationAverageFitness;
+        this.masterSeed = masterSeed;
+    }
+
+    public static File getFile(String logDirectory) {
+        return Paths.get(logDirectory, FILE_NAME).toAbsolutePath().toFile();
+    }
+
+    private static void writeStatistics(DataOutputStream out, FitnessStatistics statistics) throws IOException {
+        out.writeLong(statistics.getCount());
+        out.writeDouble(statistics.getMean());
+        out.writeDouble(statistics.getM2());
+        out.writeDouble(statistics.getMin());
+        out.writeDouble(statistics.getMax());
+        out.writeLong(statistics.getFailures());
+        for (long bucket : statistics.getHistogram()) {
+            out.writeLong(bucket);
+        }
+    }
+
+    private static FitnessStatistics readStatistics(DataInputStream in) throws IOException {
+        long count = in.readLong();
+        double mean = in.readDouble();
+        double m2 = in.readDouble();
+        double min = in.readDouble();
+        double max = in.readDouble();
+        long failures = in.readLong();
+        long[] histogram = new long[FitnessStatistics.MAX_SCORE + 1];
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            histogram[bucket] = in.readLong();
+        }
+        return new FitnessStatistics(count, mean, m2, min, max, failures, histogram);
+    }
+
+    private static void writeScores(DataOutputStream out, ScoreHistogram scores) throws IOException {
+        out.writeLong(scores.getFailures());
+        for (long count : scores.getCounts()) {
+            out.writeLong(count);
+        }
+    }
+
+    private static ScoreHistogram readScores(DataInputStream in) throws IOException {
+        long failures = in.readLong();
+        long[] counts = new long[ScoreHistogram.MAX_SCORE + 1];
+        for (int score = 0; score < counts.length; score++) {
+            counts[score] = in.readLong();
+        }
+        return new ScoreHistogram(counts, failures);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    public void save(String logDirectory) throws IOException {
+        File file = getFile(logDirectory);
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        if (!file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporaryFile, false)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.generation);
+            out.writeInt(this.populationDnas.size());
+            for (int i = 0; i < this.populationDnas.size(); i++) {
+                out.writeLong(this.populationIds.get(i));
+                /* DNA strings can outgrow writeUTF's 64KB limit */
+                writeBytes(out, this.populationDnas.get(i).getBytes("UTF-8"));
+                writeScores(out, this.populationFitness.get(i));
+            }
+            writeScores(out, this.initialPopulationFitness);
+            writeStatistics(out, this.initialPopulationAverageFitness);
+            out.writeLong(this.masterSeed);
+        }
+        Files.move(
+            temporaryFile.toPath(),
+            file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE
+        );
+    }
+
+    /* The latest checkpoint in the log directory, if there is a readable one. */
+    public static Maybe<EvolutionCheckpoint> load(String logDirectory) {
+        File file = getFile(logDirectory);
+        if (!file.exists()) {
+            return new Maybe<>(null);
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(String.format("%s is not a version %d checkpoint.", file, VERSION));
+            }
+            int generation = in.readInt();
+            int populationSize = in.readInt();
+            ArrayList<Long> populationIds = new ArrayList<>(populationSize);
+            ArrayList<String> populationDnas = new ArrayList<>(populationSize);
+            ArrayList<ScoreHistogram> populationFitness = new ArrayList<>(populationSize);
+            for (int i = 0; i < populationSize; i++) {
+                populationIds.add(in.readLong());
+                populationDnas.add(new String(readBytes(in), "UTF-8"));
+                populationFitness.add(readScores(in));
+            }
+            return new Maybe<>(
+                new EvolutionCheckpoint(
+                    generation,
+                    populationIds,
+                    populationDnas,
+                    populationFitness,
+                    readScores(in),
+                    readStatistics(in),
+                    in.readLong()
+                )
+            );
+        } catch (IOException ex) {
+            System.err.println(ex);
+            return new Maybe<>(null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "generation(%d) n(%d)",
+            this.generation,
+            this.populationDnas.size()
+        );
+    }
+}
@@ -1,11 +1,8 @@
 package agents.piers.evolution;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
@@ -16,113 +13,102 @@ import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.Stack;
 import java.util.UUID;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-
-import org.yaml.snakeyaml.DumperOptions;
-import org.yaml.snakeyaml.Yaml;
+import java.util.concurrent.ForkJoinPool;
 
+import agents.piers.DecisionCache;
 import agents.piers.Identity;
-import agents.piers.Linq;
-import agents.piers.MathUtils;
+import agents.piers.Maybe;
 import agents.piers.RandomUtils;
-import agents.piers.evolution.logging.EvolutionLogger;
-import agents.piers.evolution.logging.GenerationSummaryYAML;
+import agents.piers.evolution.distributed.SimulationCoordinator;
+import agents.piers.evolution.logging.EvolutionEventLog;
 import hanabAI.Agent;
 import hanabAI.Hanabi;
 
 public class EvolutionRunner {
 
-    public static void dumpGenerationLog(
-            String logDirectory,
-            int generation,
-            ArrayList<Float> initialPopulationsScores,
-            ArrayList<Genome> population,
-            HashMap<Genome, ArrayList<Float>> genomeToScores,
-            ArrayList<Genome> orderedGenomes,
-            ArrayList<Genome> children
-    ) {
-        /* Create a log file for the generation and get a PrintWriter for it
-         * so it's easier to print to.
-         */
-        File logFile = Paths
-            .get(logDirectory, String.format("generation-%d.txt", generation))
-            .toAbsolutePath()
-            .toFile();
-        File logFileDirectory = Paths.get(logDirectory).toAbsolutePath().toFile();
-        if (!logFileDirectory.exists()) {
-            logFileDirectory.mkdirs();
-        }
-        try {
-            FileOutputStream logFileOutputStream = new FileOutputStream(logFile, false);
-            OutputStreamWriter logFileStreamWriter = new OutputStreamWriter(logFileOutputStream, "UTF-8");
-            BufferedWriter logFileBufferedWriter = new BufferedWriter(logFileStreamWriter);
-            GenerationSummaryYAML summary = EvolutionLogger.createSummaryYAML(
-                generation,
-                initialPopulationsScores,
-                population,
-                genomeToScores,
-                orderedGenomes,
-                children
-            );
-            DumperOptions options = new DumperOptions();
-            options.setIndent(4);
-            options.setPrettyFlow(true);
-            Yaml yaml  = new Yaml(options);
-            yaml.dump(summary, logFileBufferedWriter);
-            logFileBufferedWriter.flush();
-            logFileBufferedWriter.close();
-        } catch (Exception ex) {
-            System.err.println(ex);
-        }
-    }
-
     public static String formatGenerationStatistics(
             int generation,
             ArrayList<Genome> population,
-            ArrayList<Float> populationScores,
-            ArrayList<Float> populationAverageScores,
-            ArrayList<Float> initialPopulationsScores,
-            ArrayList<Float> initialPopulationsAverageScores,
-            HashMap<Float, ArrayList<Genome>> averageScoreToGenomes
+            ScoreHistogram populationFitness,
+            FitnessStatistics populationAverageFitness,
+            FitnessStatistics initialPopulationAverageFitness,
+            Genome strongestGenome,
+            Genome weakestGenome
     ) {
-        float originalPopulationAverageScoreMean = Linq.avgF(initialPopulationsAverageScores).getValue();
-        float originalPopulationAverageScoreStdev = MathUtils.stdevP(initialPopulationsAverageScores);
-        float averageGenerationScoreAverage = Linq.avgF(populationAverageScores).getValue();
-        float averageGenerationScoreStdev = MathUtils.stdevP(populationAverageScores);
-        float maximumAverageScore = Linq.max(populationAverageScores).getValue();
-        float minimumAverageScore = Linq.min(populationAverageScores).getValue();
         return String.format(
             "%nGeneration %-7d: %-7s %-12s %-12s %-10s %-10s %-12s %-12s %-10s %-10s %-12s %-12s%n%n\tStrongest: %s%n%n\tWeakest:   %s%n",
             generation,
             String.format("n(%d)", population.size()),
             /* Statistics around individual game scores across population */
-            String.format("min_s(%5.2f)", Linq.min(populationScores).getValue()),
-            String.format("max_s(%5.2f)", Linq.max(populationScores).getValue()),
-            String.format("U_s(%5.2f)", Linq.avgF(populationScores).getValue()),
-            String.format("S_s(%5.2f)", MathUtils.stdevP(populationScores)),
+            String.format("min_s(%5.2f)", populationFitness.getMin()),
+            String.format("max_s(%5.2f)", populationFitness.getMax()),
+            String.format("U_s(%5.2f)", populationFitness.getMean()),
+            String.format("S_s(%5.2f)", populationFitness.getStdev()),
             /* Statistics around average game scores across population */
-            String.format("min_u(%5.2f)", minimumAverageScore),
-            String.format("max_u(%5.2f)", maximumAverageScore),
-            String.format("U_u(%5.2f)", averageGenerationScoreAverage),
-            String.format("S_u(%5.2f)", averageGenerationScoreStdev),
+            String.format("min_u(%5.2f)", populationAverageFitness.getMin()),
+            String.format("max_u(%5.2f)", populationAverageFitness.getMax()),
+            String.format("U_u(%5.2f)", populationAverageFitness.getMean()),
+            String.format("S_u(%5.2f)", populationAverageFitness.getStdev()),
             /* Difference to original population */
-            String.format("DU_u(%6.2f)", averageGenerationScoreAverage - originalPopulationAverageScoreMean),
-            String.format("DS_u(%6.2f)", averageGenerationScoreStdev - originalPopulationAverageScoreStdev),
-            Linq.first(averageScoreToGenomes.get(maximumAverageScore)).getValue().formatDna(),
-            Linq.first(averageScoreToGenomes.get(minimumAverageScore)).getValue().formatDna()
+            String.format("DU_u(%6.2f)", populationAverageFitness.getMean() - initialPopulationAverageFitness.getMean()),
+            String.format("DS_u(%6.2f)", populationAverageFitness.getStdev() - initialPopulationAverageFitness.getStdev()),
+            strongestGenome.formatDna(),
+            weakestGenome.formatDna()
         );
     }
 
+    /* Gives each genome's mean difference from the average score over all
+     * genomes on the same deal. Every genome's scores must be for the same
+     * deals in the same order. Ranking by these cancels out how easy each
+     * deal was, which otherwise dominates the differences between genomes.
+     */
+    public static HashMap<Genome, Float> getMeanPairedDifferences(
+            ArrayList<Genome> population,
+            HashMap<Genome, byte[]> genomeToDealScores
+    ) {
+        /* The scores are summed in population order, so that the rounding
+         * (and any ties it makes) is the same in every run.
+         */
+        ArrayList<byte[]> orderedDealScores = new ArrayList<>();
+        for (Genome genome : population) {
+            if (genomeToDealScores.containsKey(genome)) {
+                orderedDealScores.add(genomeToDealScores.get(genome));
+            }
+        }
+        int numberOfDeals = Integer.MAX_VALUE;
+        for (byte[] dealScores : orderedDealScores) {
+            numberOfDeals = Math.min(numberOfDeals, dealScores.length);
+        }
+        float[] dealAverageScores = new float[numberOfDeals];
+        for (byte[] dealScores : orderedDealScores) {
+            for (int deal = 0; deal < numberOfDeals; deal++) {
+                dealAverageScores[deal] += (float)dealScores[deal] / orderedDealScores.size();
+            }
+        }
+
+        HashMap<Genome, Float> genomeToMeanPairedDifference = new LinkedHashMap<>();
+        for (Genome genome : population) {
+            if (!genomeToDealScores.containsKey(genome)) {
+                continue;
+            }
+            float sumOfDifferences = 0;
+            for (int deal = 0; deal < numberOfDeals; deal++) {
+                sumOfDifferences += genomeToDealScores.get(genome)[deal] - dealAverageScores[deal];
+            }
+            genomeToMeanPairedDifference.put(genome, sumOfDifferences / numberOfDeals);
+        }
+        return genomeToMeanPairedDifference;
+    }
+
     public static ArrayList<Genome> run(
                 String logDirectory,
                 ArrayList<String> seedDnas,
@@ -133,95 +119,290 @@ public class EvolutionRunner {
                 float extinctionRate,
                 int generations,
                 int numberOfPlayers,
-                int numberOfSamplesInRound
+                int numberOfSamplesInRound,
+                int decisionCacheEntries,
+                boolean commonRandomNumbers,
+                int racingGamesPerGeneration,
+                int checkpointInterval,
+                boolean resume,
+                Maybe<FitnessCache> fitnessCache,
+                Maybe<IslandMigration.Port> migration,
+                Maybe<ISimulator> distributedSimulator
     ) {
         ArrayList<Genome> population = new ArrayList<Genome>();
-        ArrayList<Float> initialPopulationScores = new ArrayList<>();
-        ArrayList<Float> initialPopulationAverageScores = new ArrayList<>();
-        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        /* Optionally share a cache of decisions between all the simulation
+         * threads, games and generations.
+         */
+        Maybe<DecisionCache> decisionCache = new Maybe<>(
+            decisionCacheEntries > 0 ? new DecisionCache(decisionCacheEntries) : null
+        );
+        ScoreHistogram initialPopulationFitness = new ScoreHistogram();
+        FitnessStatistics initialPopulationAverageFitness = new FitnessStatistics();
+        /* Games are run as small work stealing tasks so that no thread sits
+         * idle waiting on a slow genome at the end of a generation.
+         */
+        ISimulator simulator = distributedSimulator.hasValue()
+            ? distributedSimulator.getValue()
+            : new ForkJoinSimulator(new ForkJoinPool(threadCount));
+        /* Optionally race genomes against the selection cut-offs within a
+         * fixed number of games per generation.
+         */
+        RacingEvaluator racingEvaluator = new RacingEvaluator(
+            simulator,
+            numberOfPlayers,
+            decisionCache,
+            racingGamesPerGeneration
+        );
 
-        for (int generation = 1; generation <= generations; generation++) {
+        /* Record every birth, evaluation and death in the background */
+        Maybe<EvolutionEventLog> eventLog = new Maybe<>(null);
+        try {
+            eventLog = new Maybe<>(new EvolutionEventLog(logDirectory));
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+
+        /* Where every genome this run breeds came from */
+        GenomeLineage lineage = new GenomeLineage();
+
+        /* Optionally carry on from the last checkpoint in the log directory */
+        int firstGeneration = 1;
+        if (resume) {
+            Maybe<EvolutionCheckpoint> checkpoint = EvolutionCheckpoint.load(logDirectory);
+            if (checkpoint.hasValue()) {
+                firstGeneration = checkpoint.getValue().generation + 1;
+                if (eventLog.hasValue()) {
+                    eventLog.getValue().resume(firstGeneration);
+                }
+                Maybe<GenomeLineage> savedLineage = GenomeLineage.load(logDirectory);
+                if (savedLineage.hasValue()) {
+                    lineage = savedLineage.getValue();
+                }
+                for (int i = 0; i < checkpoint.getValue().populationDnas.size(); i++) {
+                    Genome genome = Genome.restore(
+                        lineage,
+                        checkpoint.getValue().populationIds.get(i),
+                        checkpoint.getValue().populationDnas.get(i)
+                    );
+                    population.add(genome);
+                    if (eventLog.hasValue()) {
+                        eventLog.getValue().birth(firstGeneration, genome, "resume");
+                    }
+                    /* Members the fitness cache has no games for, as when it
+                     * isn't saved to a file, start from the games they had
+                     * played, rather than being simulated again.
+                     */
+                    if (fitnessCache.hasValue()) {
+                        FitnessStatistics cachedFitness = fitnessCache.getValue().get(genome);
+                        if (cachedFitness.getCount() == 0) {
+                            cachedFitness.addAll(checkpoint.getValue().populationFitness.get(i));
+                        }
+                    }
+                }
+                initialPopulationFitness = checkpoint.getValue().initialPopulationFitness;
+                initialPopulationAverageFitness = checkpoint.getValue().initialPopulationAverageFitness;
+                RandomUtils.setMasterSeed(checkpoint.getValue().masterSeed);
+                System.out.println(String.format("Resumed %s from checkpoint: %s", logDirectory, checkpoint.getValue()));
+            } else {
+                System.out.println(String.format("No checkpoint in %s, starting afresh.", logDirectory));
+            }
+        }
+
+        for (int generation = firstGeneration; generation <= generations; generation++) {
+            lineage.setGeneration(generation);
+            /* Each generation's choices come from its own stream, so a run
+             * resumed from a checkpoint makes the same ones.
+             */
+            int island = migration.hasValue() ? migration.getValue().getIsland() : 0;
+            RandomUtils.use(RandomUtils.stream(RandomUtils.EVOLUTION, island, generation));
+            SplittableRandom dealSeedGenerator = RandomUtils.stream(RandomUtils.DEALS, island, generation);
 
             /* Never let the population drop below the inital amount */
             while (population.size() < initialPopulationSize) {
-                if (RandomUtils.chance(spawnSeedChance)) {
-                    population.add(Genome.parseDna(RandomUtils.choose(seedDnas)));
-                } else {
-                    population.add(Genome.spawnRandom());
+                Genome genome = (
+                    RandomUtils.chance(spawnSeedChance)
+                        ? Genome.parseDna(RandomUtils.choose(seedDnas))
+                        : Genome.spawnRandom()
+                ).recordIn(lineage);
+                population.add(genome);
+                if (eventLog.hasValue()) {
+                    eventLog.getValue().birth(generation, genome, "spawn");
                 }
             }
 
-            /* Evaluate: Measure each agents performance and keep a record. */
-            HashMap<Genome, ArrayList<Float>> genomeToScores = new HashMap<>();
-            ArrayList<Float> populationScores = new ArrayList<>();
+            /* Evaluate: Measure each agents performance as a histogram of its
+             *           scores, merged into the population's as results
+             *           arrive, along with the score on each deal when
+             *           every genome plays the same deals.
+             */
+            HashMap<Genome, ScoreHistogram> genomeToFitness = new LinkedHashMap<>();
+            HashMap<Genome, byte[]> genomeToDealScores = new LinkedHashMap<>();
+            ScoreHistogram populationFitness = new ScoreHistogram();
 
-            /* Create all the simulation tasks */
-            ArrayList<Callable<SimulationCallable.Result>> simulations = new ArrayList<>();
-            for (Genome genome : population) {
+            int currentPopulationSize = population.size();
+            int numberOfGenomesToKeep = currentPopulationSize - (int)(currentPopulationSize * extinctionRate);
+
+            /* With common random numbers every genome in the generation plays
+             * the same deals, and a new set of deals is drawn each generation.
+             */
+            long[] dealSeeds = new long[Math.max(numberOfSamplesInRound, racingGamesPerGeneration)];
+            for (int i = 0; i < dealSeeds.length; i++) {
+                dealSeeds[i] = dealSeedGenerator.nextLong();
+            }
+
+            /* With a fitness cache genomes sharing the same canonical DNA are
+             * simulated once, and only for as many games as they are short.
+             */
+            HashMap<Genome, Integer> genomeToGamesNeeded = new LinkedHashMap<>();
+            HashMap<Genome, String> genomeToCanonicalDna = new HashMap<>();
+            if (fitnessCache.hasValue()) {
+                HashSet<String> canonicalDnasSeen = new HashSet<>();
+                for (Genome genome : population) {
+                    String canonicalDna = FitnessCache.getCanonicalDna(genome);
+                    genomeToCanonicalDna.put(genome, canonicalDna);
+                    long gamesNeeded = canonicalDnasSeen.add(canonicalDna)
+                        ? Math.max(0, numberOfSamplesInRound - fitnessCache.getValue().get(canonicalDna).getCount())
+                        : 0;
+                    if (racingGamesPerGeneration <= 0) {
+                        fitnessCache.getValue().addGamesSaved(numberOfSamplesInRound - gamesNeeded);
+                        if (gamesNeeded > 0) {
+                            genomeToGamesNeeded.put(genome, (int)gamesNeeded);
+                        }
+                    }
+                }
+            } else if (racingGamesPerGeneration <= 0) {
+                for (Genome genome : population) {
+                    genomeToGamesNeeded.put(genome, numberOfSamplesInRound);
+                }
+            }
+
+            /* Create all the simulation tasks, unless racing in which case
+             * the racer schedules its own.
+             */
+            ArrayList<SimulationCallable> simulations = new ArrayList<>();
+            for (Map.Entry<Genome, Integer> entry : genomeToGamesNeeded.entrySet()) {
                 simulations.add(
-                    new SimulationCallable(
-                        genome,
-                        numberOfPlayers,
-                        numberOfSamplesInRound
-                    )
+                    commonRandomNumbers
+                        ? new SimulationCallable(
+                            entry.getKey(),
+                            numberOfPlayers,
+                            Arrays.copyOf(dealSeeds, entry.getValue()),
+                            decisionCache
+                        )
+                        : new SimulationCallable(
+                            entry.getKey(),
+                            numberOfPlayers,
+                            entry.getValue(),
+                            decisionCache
+                        )
                 );
             }
 
             /* Wait for all the simulation tasks to finish */
-            List<Future<SimulationCallable.Result>> futures = new ArrayList<>();
-            try {
-                futures = pool.invokeAll(simulations);
-            } catch (InterruptedException ex) {
-                System.err.print(ex);
-                break;
+            List<SimulationCallable.Result> results = simulator.run(simulations);
+            Maybe<RacingEvaluator.Result> racingResult = new Maybe<>(null);
+            if (racingGamesPerGeneration > 0) {
+                /* Race for survival, and for a place amongst the alphas */
+                racingResult = new Maybe<>(
+                    racingEvaluator.evaluate(
+                        population,
+                        new int[] { numberOfGenomesToKeep, (int)(0.2 * numberOfGenomesToKeep) },
+                        new Maybe<long[]>(commonRandomNumbers ? dealSeeds : null)
+                    )
+                );
+            }
+            if (racingResult.hasValue()) {
+                for (Map.Entry<Genome, ScoreHistogram> entry : racingResult.getValue().genomeToScores.entrySet()) {
+                    populationFitness.addAll(entry.getValue());
+                    genomeToFitness.put(entry.getKey(), entry.getValue());
+                    if (fitnessCache.hasValue()) {
+                        fitnessCache.getValue().get(genomeToCanonicalDna.get(entry.getKey())).addAll(entry.getValue());
+                    }
+                }
             }
 
             /* Process the results of the simulations */
-            for (Future<SimulationCallable.Result> future : futures) {
-                try {
-                    SimulationCallable.Result result = future.get();
-                    for (Float score : result.scores) {
-                        populationScores.add(score);
+            for (SimulationCallable.Result result : results) {
+                if (fitnessCache.hasValue()) {
+                    fitnessCache.getValue().get(genomeToCanonicalDna.get(result.genome)).addAll(result.scores);
+                    continue;
+                }
+                populationFitness.addAll(result.scores);
+                genomeToFitness.put(result.genome, result.scores);
+                if (result.dealScores.hasValue()) {
+                    genomeToDealScores.put(result.genome, result.dealScores.getValue());
+                }
+            }
+
+            /* Every genome is judged on all the games played by its canonical
+             * DNA so far, in this generation or earlier ones.
+             */
+            if (fitnessCache.hasValue() && racingGamesPerGeneration <= 0) {
+                for (Genome genome : population) {
+                    FitnessStatistics fitness = fitnessCache.getValue().get(genomeToCanonicalDna.get(genome));
+                    if (fitness.getCount() > 0) {
+                        ScoreHistogram scores = ScoreHistogram.of(fitness);
+                        populationFitness.addAll(scores);
+                        genomeToFitness.put(genome, scores);
                     }
-                    genomeToScores.put(result.genome, result.scores);
-                } catch (InterruptedException | ExecutionException ex) {
-                    System.err.print(ex);
                 }
             }
 
             /* Selection: Let the environment kill some percentage of the worst
              *            performing agents.
              */
-            int currentPopulationSize = population.size();
-            int numberOfGenomesToKeep = currentPopulationSize - (int)(currentPopulationSize * extinctionRate);
             ArrayList<Genome> orderedSurvivingGenomes = new ArrayList<>();
-            HashMap<Float, ArrayList<Genome>> averageScoreToGenomes = new HashMap<>();
-            HashMap<Genome, Float> genomeToAverageScore = new HashMap<>();
-            for (Map.Entry<Genome, ArrayList<Float>> entry : genomeToScores.entrySet()) {
-                Genome genome = entry.getKey();
-                Float averageScore = Linq.avgF(entry.getValue()).getValue();
-                if (!averageScoreToGenomes.containsKey(averageScore)) {
-                    averageScoreToGenomes.put(averageScore, new ArrayList<Genome>());
+            HashMap<Genome, Float> genomeToAverageScore = new LinkedHashMap<>();
+            FitnessStatistics populationAverageFitness = new FitnessStatistics();
+            Genome strongestGenome = null;
+            Genome weakestGenome = null;
+            for (Genome genome : population) {
+                if (!genomeToFitness.containsKey(genome)) {
+                    continue;
                 }
-                averageScoreToGenomes.get(averageScore).add(genome);
+                float averageScore = (float)genomeToFitness.get(genome).getMean();
                 genomeToAverageScore.put(genome, averageScore);
+                populationAverageFitness.add(averageScore);
+                if (strongestGenome == null || averageScore > genomeToAverageScore.get(strongestGenome)) {
+                    strongestGenome = genome;
+                }
+                if (weakestGenome == null || averageScore < genomeToAverageScore.get(weakestGenome)) {
+                    weakestGenome = genome;
+                }
             }
-            /* Get all the average scores out and sort them */
-            Float[] sortedScores = averageScoreToGenomes.keySet().toArray(new Float[0]);
-            Arrays.sort(sortedScores, Collections.reverseOrder());
-            /* Now that he have the scores in order, and a mapping from scores to
-             * genomes we can go over them in order.
+            /* Genomes which played the same deals are ranked on their paired
+             * differences, otherwise on their average score. When racing, or
+             * drawing on cached games, the genomes have played different
+             * numbers of games so can't be paired, and distributed games
+             * come back without saying which deal got which score.
              */
-            for (Float averageScore : sortedScores) {
-                for (Genome genome : averageScoreToGenomes.get(averageScore)) {
-                    if (orderedSurvivingGenomes.size() == numberOfGenomesToKeep) {
-                        break;
-                    }
-                    orderedSurvivingGenomes.add(genome);
+            HashMap<Genome, Float> genomeToRankingScore = commonRandomNumbers
+                    && racingGamesPerGeneration <= 0
+                    && !fitnessCache.hasValue()
+                    && genomeToDealScores.size() == genomeToFitness.size()
+                ? getMeanPairedDifferences(population, genomeToDealScores)
+                : genomeToAverageScore;
+            /* Sort the genomes best first. The sort is stable, so genomes
+             * with the same ranking score keep their order in the population,
+             * which doesn't depend on threads or on how genomes hash.
+             */
+            ArrayList<Genome> rankedGenomes = new ArrayList<>();
+            for (Genome genome : population) {
+                if (genomeToRankingScore.containsKey(genome)) {
+                    rankedGenomes.add(genome);
+                }
+            }
+            Collections.sort(rankedGenomes, new Comparator<Genome>() {
+                @Override
+                public int compare(Genome x, Genome y) {
+                    return Float.compare(genomeToRankingScore.get(y), genomeToRankingScore.get(x));
                 }
+            });
+            for (Genome genome : rankedGenomes) {
                 if (orderedSurvivingGenomes.size() == numberOfGenomesToKeep) {
                     break;
                 }
+                orderedSurvivingGenomes.add(genome);
             }
 
             /* Reproduction: Have the survivours reproduce with preference
@@ -282,34 +463,100 @@ public class EvolutionRunner {
 
             /* Reporting: Display progress information */
             if (generation == 1) {
-                @SuppressWarnings("unchecked")
-                ArrayList<Float> copyOfScores = (ArrayList<Float>)populationScores.clone();
-                @SuppressWarnings("unchecked")
-                ArrayList<Float> copyOfAverageScores = new ArrayList<Float>(Arrays.asList(genomeToAverageScore.values().toArray(new Float[0])));
-                initialPopulationScores = copyOfScores;
-                initialPopulationAverageScores = copyOfAverageScores;
-            }
-
-            dumpGenerationLog(
-                logDirectory,
-                generation,
-                initialPopulationScores,
-                population,
-                genomeToScores,
-                orderedSurvivingGenomes,
-                newChildren
-            );
-            System.out.println(
+                initialPopulationFitness = populationFitness;
+                initialPopulationAverageFitness = populationAverageFitness;
+            }
+
+            if (eventLog.hasValue()) {
+                HashMap<Genome, Integer> genomeToRanking = new HashMap<>();
+                for (int i = 0; i < orderedSurvivingGenomes.size(); i++) {
+                    genomeToRanking.put(orderedSurvivingGenomes.get(i), i);
+                }
+                for (Genome genome : population) {
+                    if (!genomeToFitness.containsKey(genome)) {
+                        continue;
+                    }
+                    eventLog.getValue().evaluation(
+                        generation,
+                        genome,
+                        genomeToFitness.get(genome),
+                        genomeToRanking.containsKey(genome) ? genomeToRanking.get(genome) : -1
+                    );
+                }
+                for (Genome child : newChildren) {
+                    eventLog.getValue().birth(generation, child, "child");
+                }
+                for (Genome genome : population) {
+                    if (!genomeToRanking.containsKey(genome)) {
+                        eventLog.getValue().death(generation, genome, "selection");
+                    }
+                }
+            }
+            /* The report is printed in one go so that islands evolving in
+             * parallel don't interleave their lines.
+             */
+            StringBuilder report = new StringBuilder();
+            if (migration.hasValue()) {
+                report.append(String.format("%nIsland %d", migration.getValue().getIsland()));
+            }
+            report.append(
                 formatGenerationStatistics(
                     generation,
                     population,
-                    populationScores,
-                    new ArrayList<Float>(Arrays.asList(genomeToAverageScore.values().toArray(new Float[0]))),
-                    initialPopulationScores,
-                    initialPopulationAverageScores,
-                    averageScoreToGenomes
+                    populationFitness,
+                    populationAverageFitness,
+                    initialPopulationAverageFitness,
+                    strongestGenome,
+                    weakestGenome
                 )
             );
+            report.append(String.format("%n\tScores: %s", populationFitness));
+            report.append(String.format("%n\tSimulation: %s", simulator));
+            if (eventLog.hasValue()) {
+                report.append(String.format("%n\tEvent log: %s", eventLog.getValue()));
+            }
+            if (decisionCache.hasValue()) {
+                report.append(String.format("%n\tDecision cache: %s", decisionCache.getValue()));
+            }
+            if (fitnessCache.hasValue()) {
+                fitnessCache.getValue().save();
+                report.append(String.format("%n\tFitness cache: %s", fitnessCache.getValue()));
+            }
+            if (racingResult.hasValue()) {
+                report.append(
+                    String.format(
+                        "%n\tRacing: %s fixed_schedule(%d games)",
+                        racingResult.getValue(),
+                        population.size() * numberOfSamplesInRound
+                    )
+                );
+            }
+            System.out.println(report);
+
+            /* Migration: Send copies of the strongest genomes to another
+             *            island, and take in any that have arrived here.
+             */
+            if (migration.hasValue()) {
+                if (migration.getValue().isMigrationDue(generation)) {
+                    migration.getValue().emigrate(
+                        orderedSurvivingGenomes.subList(
+                            0,
+                            Math.min(migration.getValue().getMigrantCount(), orderedSurvivingGenomes.size())
+                        )
+                    );
+                }
+                /* Immigrants join this island's lineage without their past */
+                ArrayList<Genome> immigrants = new ArrayList<>();
+                for (Genome immigrant : migration.getValue().immigrate()) {
+                    immigrants.add(immigrant.recordIn(lineage));
+                }
+                if (eventLog.hasValue()) {
+                    for (Genome immigrant : immigrants) {
+                        eventLog.getValue().birth(generation, immigrant, "immigrant");
+                    }
+                }
+                newChildren.addAll(immigrants);
+            }
 
             /* Add the children into the surving pool */
             for (Genome child : newChildren) {
@@ -324,15 +571,55 @@ public class EvolutionRunner {
                 /* Take the number to be 5% below the maximum */
                 int numberToCull = (int)((population.size() - maximumPopulationSize) + (0.05 * population.size()));
                 for (int i = 1; i <= numberToCull; i++) {
-                    population.remove(RandomUtils.choose(population));
+                    Genome culled = RandomUtils.choose(population);
+                    population.remove(culled);
+                    if (eventLog.hasValue()) {
+                        eventLog.getValue().death(generation, culled, "cull");
+                    }
+                }
+            }
+
+            /* Checkpoint: Save the next generation's population so the run
+             *             can be resumed from here.
+             */
+            if (checkpointInterval > 0 && (generation % checkpointInterval == 0 || generation == generations)) {
+                ArrayList<Long> populationIds = new ArrayList<>();
+                ArrayList<String> populationDnas = new ArrayList<>();
+                ArrayList<ScoreHistogram> memberFitness = new ArrayList<>();
+                for (Genome genome : population) {
+                    populationIds.add(genome.getId());
+                    populationDnas.add(genome.formatDna());
+                    /* Children and immigrants haven't been evaluated yet */
+                    memberFitness.add(
+                        genomeToFitness.containsKey(genome)
+                            ? genomeToFitness.get(genome)
+                            : new ScoreHistogram()
+                    );
+                }
+                try {
+                    lineage.save(logDirectory);
+                    new EvolutionCheckpoint(
+                        generation,
+                        populationIds,
+                        populationDnas,
+                        memberFitness,
+                        initialPopulationFitness,
+                        initialPopulationAverageFitness,
+                        RandomUtils.getMasterSeed()
+                    ).save(logDirectory);
+                } catch (IOException ex) {
+                    System.err.println(ex);
                 }
             }
         }
 
+        if (eventLog.hasValue()) {
+            eventLog.getValue().close();
+        }
         return population;
     }
 
-    private static String defaultSeedDna = "{R=PS;L=1-3;H=0-0;U=0.063310;W=0.06330971, 0.117145516, 0.15623689, 0.10644951, -0.24107927, 0.12780342, 0.4718204, 0.7247719}>{R=PPS;L=1-3;H=0-8;U=0.668297;W=0.6682967, 0.11869569, 0.100679815, 0.12953922, -0.2827804, 0.12144014, 0.48272705, 0.778931}>{R=TAP;L=1-3;H=0-8;U=0.159808;W=0.15980834, 0.12995258, 0.21847118, 0.11413119, -0.10630783, 0.05989501, 0.43849492, 0.5681055}>{R=PS;L=1-3;H=0-8;U=0.018239;W=0.018238984, 0.12550148, 0.08266041, 0.118032835, -0.28588778, 0.08660595, 0.487055, 0.79237664}>{R=TAP;L=3-3;H=5-4;U=0.039606;W=0.03960633, 0.10325708, 0.13658598, 0.13309912, -0.30415744, 0.12176984, 0.4976891, 0.757141}>{R=TAU;L=1-3;H=0-8;U=0.094780;W=0.094779514, 0.17015794, 0.10871784, 0.08933269, -0.24344909, 0.1750237, 0.33825153, 0.6318985}>{R=OD;L=0-3;H=0-8;U=0.024424;W=0.024423653, 0.15138336, 0.14075342, 0.09473344, -0.18523018, 0.14681208, 0.5336484, 0.7439554}>{R=TAU;L=0-3;H=0-8;U=0.803651;W=0.803651, 0.39848068, -0.06410061, -0.28458428, 0.060878616, 0.3048276, 0.35715824, 0.27665156}>{R=OD;L=3-3;H=2-8;U=0.000367;W=3.671875E-4, 0.099656254, 0.10459375, 0.097593755, -0.29634374, 0.09715626, 0.50240624, 0.7982188}>{R=TAD;L=3-1;H=8-0;U=0.815959;W=0.81595933, 0.055366226, -0.32371068, 0.7377975, 0.13841186, 0.35326564, -0.8821597, 0.73575056}>{R=OD;L=3-3;H=2-0;U=0.788791;W=0.78879106, 0.5902765, 0.1043749, -0.37653336, 0.68054354, 0.57003605, -0.36801544, -0.07650026}";
+    public static String defaultSeedDna = "{R=PS;L=1-3;H=0-0;U=0.063310;W=0.06330971, 0.117145516, 0.15623689, 0.10644951, -0.24107927, 0.12780342, 0.4718204, 0.7247719}>{R=PPS;L=1-3;H=0-8;U=0.668297;W=0.6682967, 0.11869569, 0.100679815, 0.12953922, -0.2827804, 0.12144014, 0.48272705, 0.778931}>{R=TAP;L=1-3;H=0-8;U=0.159808;W=0.15980834, 0.12995258, 0.21847118, 0.11413119, -0.10630783, 0.05989501, 0.43849492, 0.5681055}>{R=PS;L=1-3;H=0-8;U=0.018239;W=0.018238984, 0.12550148, 0.08266041, 0.118032835, -0.28588778, 0.08660595, 0.487055, 0.79237664}>{R=TAP;L=3-3;H=5-4;U=0.039606;W=0.03960633, 0.10325708, 0.13658598, 0.13309912, -0.30415744, 0.12176984, 0.4976891, 0.757141}>{R=TAU;L=1-3;H=0-8;U=0.094780;W=0.094779514, 0.17015794, 0.10871784, 0.08933269, -0.24344909, 0.1750237, 0.33825153, 0.6318985}>{R=OD;L=0-3;H=0-8;U=0.024424;W=0.024423653, 0.15138336, 0.14075342, 0.09473344, -0.18523018, 0.14681208, 0.5336484, 0.7439554}>{R=TAU;L=0-3;H=0-8;U=0.803651;W=0.803651, 0.39848068, -0.06410061, -0.28458428, 0.060878616, 0.3048276, 0.35715824, 0.27665156}>{R=OD;L=3-3;H=2-8;U=0.000367;W=3.671875E-4, 0.099656254, 0.10459375, 0.097593755, -0.29634374, 0.09715626, 0.50240624, 0.7982188}>{R=TAD;L=3-1;H=8-0;U=0.815959;W=0.81595933, 0.055366226, -0.32371068, 0.7377975, 0.13841186, 0.35326564, -0.8821597, 0.73575056}>{R=OD;L=3-3;H=2-0;U=0.788791;W=0.78879106, 0.5902765, 0.1043749, -0.37653336, 0.68054354, 0.57003605, -0.36801544, -0.07650026}";
 
     public static void main(String[] args) {
         HashMap<String, Object> parameters = new HashMap<>();
@@ -345,20 +632,38 @@ public class EvolutionRunner {
         parameters.put("generations", 200);
         parameters.put("numberOfPlayers", 4);
         parameters.put("numberOfSamplesInRound", 50);
+        parameters.put("decisionCacheEntries", 0);
+        parameters.put("commonRandomNumbers", 0);
+        parameters.put("racingGamesPerGeneration", 0);
+        parameters.put("fitnessCache", 0);
+        parameters.put("fitnessCacheFile", "");
+        parameters.put("steadyState", 0);
+        parameters.put("tournamentSize", 3);
+        parameters.put("islands", 1);
+        parameters.put("migrationInterval", 5);
+        parameters.put("migrants", 2);
+        parameters.put("randomMigration", 0);
+        parameters.put("coordinatorPort", 0);
+        parameters.put("checkpointInterval", 1);
+        parameters.put("resume", 0);
+        parameters.put("seed", 0L);
+        parameters.put("solveEndgames", 1);
 
         if (args.length > 1) {
             for (int i = 1; i < args.length; i++) {
-                /* Args are of the form <param>::[f|i|urlenc]::<value> */
+                /* Args are of the form <param>::[f|i|l|urlenc]::<value> */
                 String arg = args[i];
                 String[] components = arg.split("::");
                 String parameter = components[0];
                 String parameterType = components[1];
                 String value = components[2];
-                if (parameterType == "f") {
+                if (parameterType.equals("f")) {
                     parameters.put(parameter, Float.parseFloat(value));
-                } else if (parameterType == "i") {
+                } else if (parameterType.equals("i")) {
                     parameters.put(parameter, Integer.parseInt(value));
-                } else if (parameterType == "urlenc") {
+                } else if (parameterType.equals("l")) {
+                    parameters.put(parameter, Long.parseLong(value));
+                } else if (parameterType.equals("urlenc")) {
                     try {
                         parameters.put(parameter, URLDecoder.decode(value, "UTF8"));
                     } catch (UnsupportedEncodingException ex) {
@@ -372,6 +677,13 @@ public class EvolutionRunner {
             }
         }
 
+        /* Resuming carries on the run logging to logDir, which must be given
+         * along with the rest of the run's original parameters.
+         */
+        if ((int)parameters.get("resume") != 0 && !parameters.containsKey("logDir")) {
+            throw new InvalidParameterException("Resuming requires the logDir of the run to resume.");
+        }
+
         if (!parameters.containsKey("logDir")) {
             parameters.put(
                 "logDir",
@@ -379,8 +691,95 @@ public class EvolutionRunner {
             );
         }
 
+        /* Workers run by a coordinator must be told this themselves */
+        Genome.setSolveEndgames((int)parameters.get("solveEndgames") != 0);
+
+        /* Runs with the same seed make the same choices; 0 picks one. The
+         * seed is printed so that a run can be repeated with seed::l::<seed>.
+         */
+        long seed = ((Number)parameters.get("seed")).longValue();
+        if (seed != 0) {
+            RandomUtils.setMasterSeed(seed);
+        }
+        System.out.println(String.format("Seed: %d", RandomUtils.getMasterSeed()));
+
+        /* Without generations evaluate as many genomes as the generational
+         * runner would have been given.
+         */
+        if ((int)parameters.get("steadyState") != 0) {
+            System.out.println((String)parameters.get("logDir"));
+            SteadyStateEvolutionRunner.run(
+                (String)parameters.get("logDir"),
+                new ArrayList<String>(Arrays.asList(((String)parameters.get("seedDnas")).split("::"))),
+                (int)parameters.get("threadCount"),
+                (int)parameters.get("initialPopulationSize"),
+                (int)parameters.get("maximumPopulationSize"),
+                (float)parameters.get("spawnSeedChance"),
+                (int)parameters.get("tournamentSize"),
+                (long)(int)parameters.get("generations") * (int)parameters.get("initialPopulationSize"),
+                (int)parameters.get("numberOfPlayers"),
+                (int)parameters.get("numberOfSamplesInRound"),
+                (int)parameters.get("decisionCacheEntries")
+            );
+            return;
+        }
+
         System.out.println((String)parameters.get("logDir"));
 
+        Maybe<FitnessCache> fitnessCache = new Maybe<FitnessCache>(
+            (int)parameters.get("fitnessCache") != 0
+                ? new FitnessCache(
+                    new Maybe<File>(
+                        ((String)parameters.get("fitnessCacheFile")).isEmpty()
+                            ? null
+                            : new File((String)parameters.get("fitnessCacheFile"))
+                    )
+                )
+                : null
+        );
+
+        /* Optionally have worker processes (see SimulationWorker) play the
+         * games instead of this process.
+         */
+        Maybe<ISimulator> distributedSimulator = new Maybe<>(null);
+        if ((int)parameters.get("coordinatorPort") > 0) {
+            try {
+                distributedSimulator = new Maybe<ISimulator>(
+                    new SimulationCoordinator((int)parameters.get("coordinatorPort"))
+                );
+            } catch (IOException ex) {
+                System.err.println(ex);
+                return;
+            }
+        }
+
+        if ((int)parameters.get("islands") > 1) {
+            IslandEvolutionRunner.run(
+                (String)parameters.get("logDir"),
+                new ArrayList<String>(Arrays.asList(((String)parameters.get("seedDnas")).split("::"))),
+                (int)parameters.get("threadCount"),
+                (int)parameters.get("islands"),
+                (int)parameters.get("migrationInterval"),
+                (int)parameters.get("migrants"),
+                (int)parameters.get("randomMigration") != 0,
+                (int)parameters.get("initialPopulationSize"),
+                (int)parameters.get("maximumPopulationSize"),
+                (float)parameters.get("spawnSeedChance"),
+                (float)parameters.get("extinctionRate"),
+                (int)parameters.get("generations"),
+                (int)parameters.get("numberOfPlayers"),
+                (int)parameters.get("numberOfSamplesInRound"),
+                (int)parameters.get("decisionCacheEntries"),
+                (int)parameters.get("commonRandomNumbers") != 0,
+                (int)parameters.get("racingGamesPerGeneration"),
+                (int)parameters.get("checkpointInterval"),
+                (int)parameters.get("resume") != 0,
+                fitnessCache,
+                distributedSimulator
+            );
+            return;
+        }
+
         EvolutionRunner.run(
             (String)parameters.get("logDir"),
             new ArrayList<String>(Arrays.asList(((String)parameters.get("seedDnas")).split("::"))),
@@ -391,7 +790,15 @@ public class EvolutionRunner {
             (float)parameters.get("extinctionRate"),
             (int)parameters.get("generations"),
             (int)parameters.get("numberOfPlayers"),
-            (int)parameters.get("numberOfSamplesInRound")
+            (int)parameters.get("numberOfSamplesInRound"),
+            (int)parameters.get("decisionCacheEntries"),
+            (int)parameters.get("commonRandomNumbers") != 0,
+            (int)parameters.get("racingGamesPerGeneration"),
+            (int)parameters.get("checkpointInterval"),
+            (int)parameters.get("resume") != 0,
+            fitnessCache,
+            new Maybe<IslandMigration.Port>(null),
+            distributedSimulator
         );
     }
-}
\ No newline at end of file
+}
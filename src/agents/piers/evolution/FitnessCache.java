@@ -0,0 +1,168 @@
+package agents.piers.evolution;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import agents.piers.Maybe;
+
+/* Accumulates score statistics for each distinct genome across generations.
+ *
+ * Genomes are keyed by their canonical DNA, the DNA left once dead genes are
+ * removed, as genomes which only differ in dead genes play identically. So a
+ * survivor, or a fresh copy of a seed, only needs to be topped up to the
+ * required number of games rather than simulated from scratch.
+ *
+ * Optionally the cache is backed by a file, with one tab separated line per
+ * genome, so that it survives restarts.
+ */
+public class FitnessCache {
+
+    private HashMap<String, FitnessStatistics> _statistics = new HashMap<>();
+    private Maybe<File> _file;
+    private long _gamesSaved;
+
+    public FitnessCache(Maybe<File> file) {
+        this._file = file;
+        if (file.hasValue() && file.getValue().exists()) {
+            this.load(file.getValue());
+        }
+    }
+
+    public FitnessCache() {
+        this(new Maybe<File>(null));
+    }
+
+    public static String getCanonicalDna(Genome X) {
+        StringBuilder builder = new StringBuilder();
+        ArrayList<GenomeRule> dna = GenomeAnalyser.analyse(X).effectiveDna;
+        for (int i = 0; i < dna.size(); i++) {
+            builder.append(dna.get(i).toString());
+            if (i < dna.size() - 1) {
+                builder.append(">");
+            }
+        }
+        return builder.toString();
+    }
+
+    public synchronized FitnessStatistics get(String canonicalDna) {
+        if (!this._statistics.containsKey(canonicalDna)) {
+            this._statistics.put(canonicalDna, new FitnessStatistics());
+        }
+        return this._statistics.get(canonicalDna);
+    }
+
+    public synchronized FitnessStatistics get(Genome X) {
+        return this.get(FitnessCache.getCanonicalDna(X));
+    }
+
+    /* Records how many games were skipped thanks to the cache. */
+    public synchronized void addGamesSaved(long games) {
+        this._gamesSaved += games;
+    }
+
+    public synchronized int size() {
+        return this._statistics.size();
+    }
+
+    private void load(File file) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 6) {
+                    continue;
+                }
+                String[] buckets = fields[4].split(",");
+                long[] histogram = new long[FitnessStatistics.MAX_SCORE + 1];
+                for (int i = 0; i < histogram.length && i < buckets.length; i++) {
+                    histogram[i] = Long.parseLong(buckets[i]);
+                }
+                this._statistics.put(
+                    fields[5],
+                    new FitnessStatistics(
+                        Long.parseLong(fields[0]),
+                        Double.parseDouble(fields[1]),
+                        Double.parseDouble(fields[2]),
+                        Long.parseLong(fields[3]),
+                        histogram
+                    )
+                );
+            }
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    /* Writes to a temporary file which then replaces the old one, so an
+     * interrupted save never leaves a truncated cache behind.
+     */
+    public synchronized void save() {
+        if (!this._file.hasValue()) {
+            return;
+        }
+        File file = this._file.getValue().getAbsoluteFile();
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        if (file.getParentFile() != null && !file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(temporaryFile, false), "UTF-8"))) {
+            for (Map.Entry<String, FitnessStatistics> entry : this._statistics.entrySet()) {
+                FitnessStatistics statistics = entry.getValue();
+                StringBuilder histogram = new StringBuilder();
+                for (long bucket : statistics.getHistogram()) {
+                    if (histogram.length() > 0) {
+                        histogram.append(",");
+                    }
+                    histogram.append(bucket);
+                }
+                writer.write(
+                    String.format(
+                        "%d\t%s\t%s\t%d\t%s\t%s%n",
+                        statistics.getCount(),
+                        Double.toString(statistics.getMean()),
+                        Double.toString(statistics.getM2()),
+                        statistics.getFailures(),
+                        histogram,
+                        entry.getKey()
+                    )
+                );
+            }
+        } catch (IOException ex) {
+            System.err.println(ex);
+            return;
+        }
+        try {
+            Files.move(
+                temporaryFile.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "genomes(%d) games_saved(%d)%s",
+            this._statistics.size(),
+            this._gamesSaved,
+            this._file.hasValue() ? String.format(" file(%s)", this._file.getValue().getPath()) : ""
+        );
+    }
+}
@@ -0,0 +1,140 @@
+package agents.piers.evolution;
+
+/* Streaming statistics over game scores: the count, mean and sum of squared
+ * deviations (Welford's method), the extremes and a histogram of the scores.
+ * Games that ended in an illegal action score -1 and are counted as failures.
+ * Also used for statistics over average scores, which the histogram buckets
+ * to the nearest whole score.
+ */
+public class FitnessStatistics {
+
+    public static final int MAX_SCORE = ScoreHistogram.MAX_SCORE;
+
+    private long _count;
+    private double _mean;
+    private double _m2;
+    private double _min = Double.POSITIVE_INFINITY;
+    private double _max = Double.NEGATIVE_INFINITY;
+    private long _failures;
+    private long[] _histogram = new long[MAX_SCORE + 1];
+
+    public FitnessStatistics() { }
+
+    public FitnessStatistics(long count, double mean, double m2, double min, double max, long failures, long[] histogram) {
+        this._count = count;
+        this._mean = mean;
+        this._m2 = m2;
+        /* The extremes of nothing are NaN, which would stick */
+        this._min = count > 0 ? min : Double.POSITIVE_INFINITY;
+        this._max = count > 0 ? max : Double.NEGATIVE_INFINITY;
+        this._failures = failures;
+        this._histogram = histogram.clone();
+    }
+
+    /* Without the extremes they are taken from the histogram, which is
+     * exact for game scores.
+     */
+    public FitnessStatistics(long count, double mean, double m2, long failures, long[] histogram) {
+        this(count, mean, m2, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, failures, histogram);
+        if (failures > 0) {
+            this._min = -1;
+            this._max = -1;
+        }
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            if (histogram[score] > 0) {
+                this._min = Math.min(this._min, score);
+                this._max = score;
+            }
+        }
+    }
+
+    public synchronized void add(float score) {
+        this._count++;
+        double delta = score - this._mean;
+        this._mean += delta / this._count;
+        this._m2 += delta * (score - this._mean);
+        this._min = Math.min(this._min, score);
+        this._max = Math.max(this._max, score);
+        int bucket = Math.round(score);
+        if (bucket < 0) {
+            this._failures++;
+        } else {
+            this._histogram[Math.min(bucket, MAX_SCORE)]++;
+        }
+    }
+
+    public synchronized void addAll(Iterable<Float> scores) {
+        for (Float score : scores) {
+            this.add(score);
+        }
+    }
+
+    /* Adds in everything another accumulator has seen (Chan et al.'s
+     * pairwise combination of Welford's sums).
+     */
+    public synchronized void addAll(FitnessStatistics other) {
+        long otherCount;
+        double otherMean;
+        double otherM2;
+        synchronized (other) {
+            otherCount = other._count;
+            otherMean = other._mean;
+            otherM2 = other._m2;
+            this._min = Math.min(this._min, other._min);
+            this._max = Math.max(this._max, other._max);
+            this._failures += other._failures;
+            for (int score = 0; score <= MAX_SCORE; score++) {
+                this._histogram[score] += other._histogram[score];
+            }
+        }
+        if (otherCount == 0) {
+            return;
+        }
+        long count = this._count + otherCount;
+        double delta = otherMean - this._mean;
+        this._mean += delta * otherCount / count;
+        this._m2 += otherM2 + delta * delta * this._count * otherCount / count;
+        this._count = count;
+    }
+
+    /* Adds in every game of a simulation's results. */
+    public void addAll(ScoreHistogram scores) {
+        this.addAll(
+            new FitnessStatistics(
+                scores.getCount(),
+                scores.getCount() > 0 ? scores.getMean() : 0,
+                scores.getM2(),
+                scores.getFailures(),
+                scores.getCounts()
+            )
+        );
+    }
+
+    public synchronized long getCount() { return this._count; }
+    public synchronized double getMean() { return this._mean; }
+    public synchronized double getM2() { return this._m2; }
+    public synchronized double getMin() { return this._count > 0 ? this._min : Double.NaN; }
+    public synchronized double getMax() { return this._count > 0 ? this._max : Double.NaN; }
+    public synchronized long getFailures() { return this._failures; }
+    public synchronized long[] getHistogram() { return this._histogram.clone(); }
+
+    /* The sample variance, as MathUtils.stdevP computes. */
+    public synchronized double getVariance() {
+        return this._count > 1 ? this._m2 / (this._count - 1) : 0;
+    }
+
+    public synchronized double getStdev() {
+        return Math.sqrt(this.getVariance());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "n(%d) mean(%.3f) stdev(%.3f) failures(%d)",
+            this._count,
+            this._mean,
+            this.getStdev(),
+            this._failures
+        );
+    }
+}
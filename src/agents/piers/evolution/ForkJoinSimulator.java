@@ -0,0 +1,162 @@
+package agents.piers.evolution;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Runs simulations as many small tasks on a work stealing pool rather than
+ * one task per genome.
+ *
+ * Each simulation's games are split in half recursively until a task has at
+ * most gamesPerTask games left, so idle threads can steal work from a genome
+ * that happens to be slow, and no core waits on the last few genomes. Every
+ * game writes its score into its own slot of the genome's accumulator, so
+ * results are gathered without any locking.
+ */
+public class ForkJoinSimulator implements ISimulator {
+
+    public static final int DEFAULT_GAMES_PER_TASK = 2;
+
+    private ForkJoinPool _pool;
+    private int _gamesPerTask;
+    private LongAdder _busyNanos = new LongAdder();
+    private LongAdder _tasks = new LongAdder();
+    private long _lastWallNanos;
+    private long _lastBusyNanos;
+    private long _lastTasks;
+
+    public ForkJoinSimulator(ForkJoinPool pool, int gamesPerTask) {
+        this._pool = pool;
+        this._gamesPerTask = Math.max(1, gamesPerTask);
+    }
+
+    public ForkJoinSimulator(ForkJoinPool pool) {
+        this(pool, DEFAULT_GAMES_PER_TASK);
+    }
+
+    /* CPU time where available, so threads sharing a core don't each count
+     * as busy.
+     */
+    private static long getThreadNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads.isCurrentThreadCpuTimeSupported()
+            ? threads.getCurrentThreadCpuTime()
+            : System.nanoTime();
+    }
+
+    private static class Accumulator {
+        public final SimulationCallable simulation;
+        public final byte[] scores;
+        public final AtomicBoolean failed = new AtomicBoolean(false);
+
+        public Accumulator(SimulationCallable simulation) {
+            this.simulation = simulation;
+            this.scores = new byte[simulation.getNumberOfRounds()];
+        }
+    }
+
+    private class GamesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private Accumulator _accumulator;
+        private int _firstRound;
+        private int _lastRound;
+
+        public GamesTask(Accumulator accumulator, int firstRound, int lastRound) {
+            this._accumulator = accumulator;
+            this._firstRound = firstRound;
+            this._lastRound = lastRound;
+        }
+
+        @Override
+        protected void compute() {
+            int rounds = this._lastRound - this._firstRound + 1;
+            if (rounds > ForkJoinSimulator.this._gamesPerTask) {
+                int middleRound = this._firstRound + rounds / 2 - 1;
+                invokeAll(
+                    new GamesTask(this._accumulator, this._firstRound, middleRound),
+                    new GamesTask(this._accumulator, middleRound + 1, this._lastRound)
+                );
+                return;
+            }
+
+            long startNanos = getThreadNanos();
+            for (int round = this._firstRound; round <= this._lastRound; round++) {
+                if (this._accumulator.failed.get()) {
+                    break;
+                }
+                try {
+                    this._accumulator.scores[round - 1] = (byte)this._accumulator.simulation.playRound(round);
+                } catch (RuntimeException ex) {
+                    System.err.println(ex);
+                    this._accumulator.failed.set(true);
+                }
+            }
+            ForkJoinSimulator.this._busyNanos.add(getThreadNanos() - startNanos);
+            ForkJoinSimulator.this._tasks.increment();
+        }
+    }
+
+    @Override
+    public List<SimulationCallable.Result> run(List<SimulationCallable> simulations) {
+        ArrayList<Accumulator> accumulators = new ArrayList<>();
+        ArrayList<GamesTask> tasks = new ArrayList<>();
+        for (SimulationCallable simulation : simulations) {
+            Accumulator accumulator = new Accumulator(simulation);
+            accumulators.add(accumulator);
+            if (simulation.getNumberOfRounds() > 0) {
+                tasks.add(new GamesTask(accumulator, 1, simulation.getNumberOfRounds()));
+            }
+        }
+
+        long busyNanosBefore = this._busyNanos.sum();
+        long tasksBefore = this._tasks.sum();
+        long startNanos = System.nanoTime();
+        this._pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        this._lastWallNanos = System.nanoTime() - startNanos;
+        this._lastBusyNanos = this._busyNanos.sum() - busyNanosBefore;
+        this._lastTasks = this._tasks.sum() - tasksBefore;
+
+        ArrayList<SimulationCallable.Result> results = new ArrayList<>();
+        for (Accumulator accumulator : accumulators) {
+            if (accumulator.failed.get()) {
+                continue;
+            }
+            results.add(accumulator.simulation.createResult(accumulator.scores));
+        }
+        return results;
+    }
+
+    /* The fraction of the pool's threads' time spent playing games during
+     * the last run. More threads than cores can't all be busy at once.
+     */
+    public float getLastUtilisation() {
+        if (this._lastWallNanos == 0) {
+            return 0;
+        }
+        return (float)this._lastBusyNanos / ((float)this._lastWallNanos * this._pool.getParallelism());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "threads(%d) tasks(%d) wall(%.2fs) utilisation(%.1f%%)",
+            this._pool.getParallelism(),
+            this._lastTasks,
+            this._lastWallNanos / 1e9,
+            100 * this.getLastUtilisation()
+        );
+    }
+}
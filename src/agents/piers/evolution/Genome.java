@@ -2,51 +2,68 @@ package agents.piers.evolution;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.UUID;
 
+import agents.piers.CachingRule;
+import agents.piers.DecisionCache;
 import agents.piers.FallbackRule;
 import agents.piers.IRule;
 import agents.piers.Maybe;
 import agents.piers.Pair;
 import agents.piers.RandomUtils;
 import agents.piers.RuleSequenceRule;
+import agents.piers.SolveEndgameRule;
 import hanabAI.Action;
 import hanabAI.Agent;
 import hanabAI.State;
 
 public class Genome {
 
-    private Maybe<Genome[]> parents;
-    private Maybe<Genome> mutationOfGenome;
+    /* Whether agents first try to solve the endgame exactly, before their
+     * genes. Only worth it once most games reach the end of the deck.
+     */
+    private static volatile boolean _solveEndgames = true;
+
+    /* Where the genome came from is kept in the lineage of the run it is
+     * part of, if any, under its id. Genomes outside a run have no id.
+     */
+    private GenomeLineage lineage;
+    private long id;
     private ArrayList<GenomeRule> dna;
-    private String name;
 
     private Genome(ArrayList<GenomeRule> dna) {
-        this.parents = new Maybe<>(null);
-        this.mutationOfGenome = new Maybe<>(null);
-        this.dna = dna;
-        this.name = UUID.randomUUID().toString();
+        this(null, GenomeLineage.NONE, GenomeLineage.NONE, GenomeLineage.NONE, dna);
     }
 
-    private Genome(Maybe<Genome[]> parents, ArrayList<GenomeRule> dna) {
-        this.parents = parents;
-        this.mutationOfGenome = new Maybe<>(null);
+    private Genome(
+            GenomeLineage lineage,
+            long firstParentId,
+            long secondParentId,
+            long mutationOfId,
+            ArrayList<GenomeRule> dna
+    ) {
+        this.lineage = lineage;
+        this.id = lineage != null
+            ? lineage.record(firstParentId, secondParentId, mutationOfId)
+            : GenomeLineage.NONE;
         this.dna = dna;
-        this.name = UUID.randomUUID().toString();
-    }
-
-    private Genome(Genome[] parents, ArrayList<GenomeRule> dna) {
-        this(new Maybe<>(parents), dna);
     }
 
-    private Genome(Genome[] parents, Genome mutationOfGenome, ArrayList<GenomeRule> dna) {
-        this(parents, dna);
-        this.mutationOfGenome = new Maybe<>(mutationOfGenome);
+    /* The same genome as a new member of a run, with no parents there. */
+    public Genome recordIn(GenomeLineage lineage) {
+        return new Genome(lineage, GenomeLineage.NONE, GenomeLineage.NONE, GenomeLineage.NONE, this.dna);
     }
 
-    private Genome(Maybe<Genome[]> parents, Genome mutationOfGenome, ArrayList<GenomeRule> dna) {
-        this(parents, dna);
-        this.mutationOfGenome = new Maybe<>(mutationOfGenome);
+    /* A genome saved in a checkpoint, back under the id it had in the run's
+     * lineage, or as a new member if the lineage has no such genome.
+     */
+    public static Genome restore(GenomeLineage lineage, long id, String dnaString) {
+        Genome genome = Genome.parseDna(dnaString);
+        if (!lineage.contains(id)) {
+            return genome.recordIn(lineage);
+        }
+        genome.lineage = lineage;
+        genome.id = id;
+        return genome;
     }
 
     public static Genome crossover(Genome X, float xFitness, Genome Y, float yFitness) {
@@ -73,7 +90,7 @@ public class Genome {
          * the genetic material of both parents.
          */
         if (X.dna.size() == Y.dna.size()) {
-            return new Genome(new Genome[] { X, Y }, childDna);
+            return new Genome(X.lineage, X.id, Y.id, GenomeLineage.NONE, childDna);
         }
 
         Genome longerGenome = X.dna.size() > Y.dna.size() ? X : Y;
@@ -90,7 +107,7 @@ public class Genome {
             }
         }
 
-        return new Genome(new Genome[] { X, Y }, childDna);
+        return new Genome(X.lineage, X.id, Y.id, GenomeLineage.NONE, childDna);
     }
 
     public static Genome mutate(Genome X) {
@@ -119,16 +136,35 @@ public class Genome {
             mutatedDna.set(i, GenomeRule.mutate(mutatedDna.get(i)));
         }
 
+        long[] parentIds = X.getParentIds();
         return new Genome(
-            X.getParents(),
-            X,
+            X.lineage,
+            parentIds[0],
+            parentIds[1],
+            X.id,
             mutatedDna
         );
     }
 
-    public String getName() { return this.name; }
-    public Maybe<Genome[]> getParents() { return this.parents; }
-    public Maybe<Genome> getGenomeThisIsAMutationOf() { return this.mutationOfGenome; }
+    public long getId() { return this.id; }
+
+    /* Both parent ids, each NONE for genomes that weren't bred in a run. */
+    public long[] getParentIds() {
+        return this.id != GenomeLineage.NONE
+            ? this.lineage.getParentIds(this.id)
+            : new long[] { GenomeLineage.NONE, GenomeLineage.NONE };
+    }
+
+    public long getMutationOfId() {
+        return this.id != GenomeLineage.NONE
+            ? this.lineage.getMutationOfId(this.id)
+            : GenomeLineage.NONE;
+    }
+
+    public String getName() { return Long.toString(this.id); }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<GenomeRule> getDna() { return (ArrayList<GenomeRule>)this.dna.clone(); }
 
     @Override
     public String toString() {
@@ -147,9 +183,52 @@ public class Genome {
         return builder.toString();
     }
 
+    public static void setSolveEndgames(boolean solveEndgames) {
+        _solveEndgames = solveEndgames;
+    }
+
+    public static boolean getSolveEndgames() {
+        return _solveEndgames;
+    }
+
     public static Agent asAgent(Genome X, int playerIndex) {
+        return Genome.asAgent(X, playerIndex, new Maybe<DecisionCache>(null));
+    }
+
+    /* With a cache, the choices of the genes up to the first one which draws
+     * random numbers are cached. The endgame solver and the fallback sample
+     * and guess, so are always asked afresh.
+     */
+    public static Agent asAgent(Genome X, int playerIndex, Maybe<DecisionCache> decisionCache) {
         ArrayList<IRule> rules = new ArrayList<IRule>();
-        for (GenomeRule gene : X.dna) {
+        if (_solveEndgames) {
+            rules.add(new SolveEndgameRule(playerIndex));
+        }
+        ArrayList<GenomeRule> effectiveDna = GenomeAnalyser.analyse(X).effectiveDna;
+        int deterministicGenes = 0;
+        while (decisionCache.hasValue()
+                && deterministicGenes < effectiveDna.size()
+                && effectiveDna.get(deterministicGenes).ruleType.isDeterministic()
+        ) {
+            deterministicGenes++;
+        }
+        if (deterministicGenes > 0) {
+            ArrayList<IRule> cachedRules = new ArrayList<IRule>();
+            StringBuilder cachedDna = new StringBuilder();
+            for (GenomeRule gene : effectiveDna.subList(0, deterministicGenes)) {
+                cachedRules.add(GenomeRule.asRule(gene, playerIndex));
+                cachedDna.append(cachedDna.length() > 0 ? ">" : "").append(gene.toString());
+            }
+            rules.add(
+                new CachingRule(
+                    new RuleSequenceRule(cachedRules),
+                    playerIndex,
+                    decisionCache.getValue(),
+                    cachedDna.toString()
+                )
+            );
+        }
+        for (GenomeRule gene : effectiveDna.subList(deterministicGenes, effectiveDna.size())) {
             rules.add(GenomeRule.asRule(gene, playerIndex));
         }
         rules.add(new FallbackRule(playerIndex));
@@ -0,0 +1,186 @@
+package agents.piers.evolution;
+
+import java.util.ArrayList;
+
+/* Statically removes genes that can never produce an action.
+ *
+ * An agent is only ever asked to act with 1-3 lives and 0-8 hints, so each
+ * gene's condition is a set of (lives, hints) cells out of 27. A gene is dead
+ * if, in every cell of its condition:
+ *
+ *  - its rule can't act (hint rules need 2 or more hints, discard rules
+ *    fewer than 8), or
+ *  - an earlier gene always acts there (a random discard always can), or
+ *  - an earlier gene declines whenever this one would (the same kind of
+ *    rule, with a threshold no stricter) and so shadows it.
+ *
+ * Dead genes are dropped before the DNA is turned into an agent. The DNA
+ * itself is left alone as mutation may bring such genes back to life.
+ */
+public class GenomeAnalyser {
+
+    private static final int MIN_LIVES = 1;
+    private static final int MAX_LIVES = 3;
+    private static final int MAX_HINTS = 8;
+
+    public static class Result {
+        public final ArrayList<GenomeRule> effectiveDna;
+        public final ArrayList<String> report;
+
+        protected Result(ArrayList<GenomeRule> effectiveDna, ArrayList<String> report) {
+            this.effectiveDna = effectiveDna;
+            this.report = report;
+        }
+
+        public String formatReport() {
+            StringBuilder builder = new StringBuilder();
+            for (String line : this.report) {
+                builder.append(line);
+                builder.append(String.format("%n"));
+            }
+            return builder.toString();
+        }
+    }
+
+    private static int cell(int lives, int hints) {
+        return (lives - MIN_LIVES) * (MAX_HINTS + 1) + hints;
+    }
+
+    private static int getConditionCells(GenomeRule gene) {
+        int cells = 0;
+        for (int lives = MIN_LIVES; lives <= MAX_LIVES; lives++) {
+            for (int hints = 0; hints <= MAX_HINTS; hints++) {
+                if (lives >= gene.livesRemainingRange.getLeft()
+                        && lives <= gene.livesRemainingRange.getRight()
+                        && hints >= gene.hintsRemainingRange.getLeft()
+                        && hints <= gene.hintsRemainingRange.getRight()
+                ) {
+                    cells |= 1 << cell(lives, hints);
+                }
+            }
+        }
+        return cells;
+    }
+
+    /* The cells in which the gene's rule is able to produce an action at all. */
+    private static int getCellsRuleCanAct(GenomeRule gene) {
+        int cells = 0;
+        for (int lives = MIN_LIVES; lives <= MAX_LIVES; lives++) {
+            for (int hints = 0; hints <= MAX_HINTS; hints++) {
+                boolean canAct;
+                switch (gene.ruleType) {
+                    case TellAnyonePlayable:
+                    case TellAnyoneUseful:
+                    case TellAnyoneUseless:
+                        canAct = hints > 1;
+                        break;
+                    case OsawaDiscard:
+                    case RandomDiscard:
+                        canAct = hints < MAX_HINTS;
+                        break;
+                    default:
+                        canAct = true;
+                }
+                if (canAct) {
+                    cells |= 1 << cell(lives, hints);
+                }
+            }
+        }
+        return cells;
+    }
+
+    private static float getPlayThreshold(GenomeRule gene) {
+        return gene.ruleType == GenomeRuleType.PlaySafe
+            ? (float)1.0
+            : GenomeHintWeightingParameters.asParameterSet(gene.hintWeightingParamters).utilityThreshold;
+    }
+
+    /* True if, whenever the earlier gene's rule declines to act, the later
+     * gene's rule must decline too.
+     */
+    private static boolean declinesWhenever(GenomeRule earlier, GenomeRule later) {
+        boolean earlierPlays = earlier.ruleType == GenomeRuleType.PlaySafe
+            || earlier.ruleType == GenomeRuleType.PlayProbablySafe;
+        boolean laterPlays = later.ruleType == GenomeRuleType.PlaySafe
+            || later.ruleType == GenomeRuleType.PlayProbablySafe;
+        if (earlierPlays && laterPlays) {
+            return getPlayThreshold(earlier) <= getPlayThreshold(later);
+        }
+        if (earlier.ruleType != later.ruleType) {
+            return false;
+        }
+        switch (earlier.ruleType) {
+            /* Whether these act doesn't depend on their weightings, only
+             * on whether a suitable hint or discard exists.
+             */
+            case TellAnyonePlayable:
+            case TellAnyoneUseless:
+            case OsawaDiscard:
+                return true;
+            case TellAnyoneUseful:
+                ArrayList<Float> earlierWeights = earlier.hintWeightingParamters;
+                ArrayList<Float> laterWeights = later.hintWeightingParamters;
+                return earlierWeights.subList(1, earlierWeights.size()).equals(laterWeights.subList(1, laterWeights.size()))
+                    && earlierWeights.get(0) <= laterWeights.get(0);
+            default:
+                return false;
+        }
+    }
+
+    public static Result analyse(Genome X) {
+        ArrayList<GenomeRule> dna = X.getDna();
+        ArrayList<GenomeRule> effectiveDna = new ArrayList<GenomeRule>();
+        ArrayList<String> report = new ArrayList<String>();
+        int[] liveCells = new int[dna.size()];
+        /* Cells in which some earlier gene is certain to act. */
+        int closedCells = 0;
+
+        for (int i = 0; i < dna.size(); i++) {
+            GenomeRule gene = dna.get(i);
+            int conditionCells = getConditionCells(gene);
+            liveCells[i] = conditionCells & getCellsRuleCanAct(gene);
+
+            String reason = null;
+            if (conditionCells == 0) {
+                reason = "condition can never hold";
+            } else if (liveCells[i] == 0) {
+                reason = "rule can never act within condition";
+            } else {
+                int reachable = liveCells[i] & ~closedCells;
+                for (int j = 0; j < i && reachable != 0; j++) {
+                    if (declinesWhenever(dna.get(j), gene)) {
+                        reachable &= ~liveCells[j];
+                    }
+                }
+                if (reachable == 0) {
+                    reason = "shadowed by earlier genes";
+                }
+            }
+
+            if (gene.ruleType == GenomeRuleType.RandomDiscard) {
+                closedCells |= liveCells[i];
+            }
+
+            if (reason == null) {
+                effectiveDna.add(gene);
+                report.add(String.format("  %2d %s", i, gene));
+            } else {
+                report.add(String.format("- %2d %s (%s)", i, gene, reason));
+            }
+        }
+
+        report.add(
+            String.format(
+                "%d of %d genes are effective.",
+                effectiveDna.size(),
+                dna.size()
+            )
+        );
+        return new Result(effectiveDna, report);
+    }
+
+    public static void main(String[] args) {
+        String dna = args.length > 0 ? args[0] : EvolutionRunner.defaultSeedDna;
+        System.out.print(GenomeAnalyser.analyse(Genome.parseDna(dna)).formatReport());
+    }
+}
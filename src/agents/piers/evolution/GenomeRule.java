@@ -145,6 +145,14 @@ public class GenomeRule {
     }
 
     public static IRule asRule(GenomeRule X, int playerIndex) {
+        return IfRule.hintsAndLivesWithinRange(
+            X.livesRemainingRange,
+            X.hintsRemainingRange,
+            GenomeRule.asConsequence(X, playerIndex)
+        );
+    }
+
+    public static IRule asConsequence(GenomeRule X, int playerIndex) {
         IRule consequence = null;
         GenomeHintWeightingParameters weights = GenomeHintWeightingParameters.asParameterSet(
             X.hintWeightingParamters
@@ -196,11 +204,7 @@ public class GenomeRule {
             consequence = new DiscardRandomRule(playerIndex);
         }
 
-        return IfRule.hintsAndLivesWithinRange(
-            X.livesRemainingRange,
-            X.hintsRemainingRange,
-            consequence
-        );
+        return consequence;
     }
 
     public static String formatGenomeRule(GenomeRule rule) {
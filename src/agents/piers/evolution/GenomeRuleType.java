@@ -9,6 +9,13 @@ public enum GenomeRuleType {
     OsawaDiscard,
     RandomDiscard;
 
+    /* Whether a gene of this type always makes the same choice in the same
+     * information set, so its choices can be cached.
+     */
+    public boolean isDeterministic() {
+        return this != RandomDiscard;
+    }
+
     @Override
     public String toString() {
         switch (this)  {
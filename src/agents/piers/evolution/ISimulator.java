@@ -0,0 +1,10 @@
+package agents.piers.evolution;
+
+import java.util.List;
+
+/* Something that plays out simulations, whether in this process or not. As
+ * with invokeAll on the simulations, one which fails has no result.
+ */
+public interface ISimulator {
+    List<SimulationCallable.Result> run(List<SimulationCallable> simulations);
+}
@@ -0,0 +1,103 @@
+package agents.piers.evolution;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import agents.piers.Maybe;
+
+/* Evolves several populations (islands) side by side, each with its own
+ * share of the threads (or all sharing one distributed simulator), letting
+ * the strongest genomes of each island migrate to another every few
+ * generations. Islands converge independently, which keeps more diversity
+ * than one large population, and their selection and reproduction phases
+ * run in parallel rather than one after another.
+ */
+public class IslandEvolutionRunner {
+
+    /* Each island checkpoints to, and resumes from, its own log directory.
+     * Migrants in flight at the time of a checkpoint are lost.
+     */
+    public static ArrayList<Genome> run(
+            String logDirectory,
+            ArrayList<String> seedDnas,
+            int threadCount,
+            int islandCount,
+            int migrationInterval,
+            int migrantCount,
+            boolean randomTopology,
+            int initialPopulationSize,
+            int maximumPopulationSize,
+            float spawnSeedChance,
+            float extinctionRate,
+            int generations,
+            int numberOfPlayers,
+            int numberOfSamplesInRound,
+            int decisionCacheEntries,
+            boolean commonRandomNumbers,
+            int racingGamesPerGeneration,
+            int checkpointInterval,
+            boolean resume,
+            Maybe<FitnessCache> fitnessCache,
+            Maybe<ISimulator> distributedSimulator
+    ) {
+        IslandMigration migration = new IslandMigration(
+            islandCount,
+            migrationInterval,
+            migrantCount,
+            randomTopology
+        );
+        int threadsPerIsland = Math.max(1, threadCount / islandCount);
+        ArrayList<ArrayList<Genome>> finalPopulations = new ArrayList<>();
+        ArrayList<Thread> islands = new ArrayList<>();
+        for (int island = 0; island < islandCount; island++) {
+            finalPopulations.add(new ArrayList<Genome>());
+            int thisIsland = island;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ArrayList<Genome> population = EvolutionRunner.run(
+                        Paths.get(logDirectory, String.format("island-%d", thisIsland)).toString(),
+                        seedDnas,
+                        threadsPerIsland,
+                        initialPopulationSize,
+                        maximumPopulationSize,
+                        spawnSeedChance,
+                        extinctionRate,
+                        generations,
+                        numberOfPlayers,
+                        numberOfSamplesInRound,
+                        decisionCacheEntries,
+                        commonRandomNumbers,
+                        racingGamesPerGeneration,
+                        checkpointInterval,
+                        resume,
+                        fitnessCache,
+                        new Maybe<IslandMigration.Port>(migration.getPort(thisIsland)),
+                        distributedSimulator
+                    );
+                    synchronized (finalPopulations) {
+                        finalPopulations.set(thisIsland, population);
+                    }
+                }
+            }, String.format("island-%d", island));
+            islands.add(thread);
+            thread.start();
+        }
+
+        for (Thread island : islands) {
+            try {
+                island.join();
+            } catch (InterruptedException ex) {
+                System.err.println(ex);
+            }
+        }
+
+        ArrayList<Genome> population = new ArrayList<>();
+        synchronized (finalPopulations) {
+            for (ArrayList<Genome> islandPopulation : finalPopulations) {
+                population.addAll(islandPopulation);
+            }
+        }
+        return population;
+    }
+}
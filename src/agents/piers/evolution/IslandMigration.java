@@ -0,0 +1,88 @@
+package agents.piers.evolution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import agents.piers.RandomUtils;
+
+/* Moves genomes between the islands of an island model.
+ *
+ * Every island has an inbox. An island sends its migrants either to the next
+ * island around a ring or to a random other island, and collects whatever
+ * has arrived in its inbox whenever it is ready, so islands never wait on
+ * each other.
+ */
+public class IslandMigration {
+
+    private ArrayList<ConcurrentLinkedQueue<Genome>> _inboxes = new ArrayList<>();
+    private int _interval;
+    private int _migrantCount;
+    private boolean _randomTopology;
+
+    public IslandMigration(int islandCount, int interval, int migrantCount, boolean randomTopology) {
+        for (int i = 0; i < islandCount; i++) {
+            this._inboxes.add(new ConcurrentLinkedQueue<Genome>());
+        }
+        this._interval = interval;
+        this._migrantCount = migrantCount;
+        this._randomTopology = randomTopology;
+    }
+
+    public int getIslandCount() {
+        return this._inboxes.size();
+    }
+
+    public Port getPort(int island) {
+        return new Port(island);
+    }
+
+    private int getDestination(int island) {
+        int islandCount = this._inboxes.size();
+        if (!this._randomTopology || islandCount <= 2) {
+            return (island + 1) % islandCount;
+        }
+        /* Any island but this one */
+        return (island + 1 + RandomUtils.integer(0, islandCount - 2)) % islandCount;
+    }
+
+    /* One island's view of the migration. */
+    public class Port {
+        private int _island;
+
+        protected Port(int island) {
+            this._island = island;
+        }
+
+        public int getIsland() {
+            return this._island;
+        }
+
+        public int getMigrantCount() {
+            return IslandMigration.this._migrantCount;
+        }
+
+        public boolean isMigrationDue(int generation) {
+            return IslandMigration.this._inboxes.size() > 1
+                && IslandMigration.this._interval > 0
+                && generation % IslandMigration.this._interval == 0;
+        }
+
+        public void emigrate(List<Genome> migrants) {
+            for (Genome migrant : migrants) {
+                IslandMigration.this._inboxes
+                    .get(IslandMigration.this.getDestination(this._island))
+                    .add(migrant);
+            }
+        }
+
+        public ArrayList<Genome> immigrate() {
+            ArrayList<Genome> immigrants = new ArrayList<>();
+            Genome immigrant;
+            while ((immigrant = IslandMigration.this._inboxes.get(this._island).poll()) != null) {
+                immigrants.add(immigrant);
+            }
+            return immigrants;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package agents.piers.evolution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import agents.piers.DecisionCache;
+import agents.piers.Maybe;
+
+/* Evaluates a population by racing rather than giving every genome the same
+ * number of games.
+ *
+ * Games are played in rounds, each twice as long as the last. After each
+ * round every genome's mean score gets a confidence interval, and a genome is
+ * only raced further while its interval straddles one of the boundaries
+ * selection cares about (e.g. the survival cut-off). Genomes that are clearly
+ * in or clearly out stop playing, and the rest of the budget is split between
+ * the contested ones.
+ */
+public class RacingEvaluator {
+
+    public static final int DEFAULT_INITIAL_GAMES = 10;
+    public static final float DEFAULT_CONFIDENCE_Z = (float)1.96;
+
+    private ISimulator _simulator;
+    private int _numberOfPlayers;
+    private Maybe<DecisionCache> _decisionCache;
+    private int _gamesPerGeneration;
+    private int _initialGames;
+    private float _confidenceZ;
+
+    public RacingEvaluator(
+            ISimulator simulator,
+            int numberOfPlayers,
+            Maybe<DecisionCache> decisionCache,
+            int gamesPerGeneration,
+            int initialGames,
+            float confidenceZ
+    ) {
+        this._simulator = simulator;
+        this._numberOfPlayers = numberOfPlayers;
+        this._decisionCache = decisionCache;
+        this._gamesPerGeneration = gamesPerGeneration;
+        this._initialGames = initialGames;
+        this._confidenceZ = confidenceZ;
+    }
+
+    public RacingEvaluator(
+            ISimulator simulator,
+            int numberOfPlayers,
+            Maybe<DecisionCache> decisionCache,
+            int gamesPerGeneration
+    ) {
+        this(
+            simulator,
+            numberOfPlayers,
+            decisionCache,
+            gamesPerGeneration,
+            DEFAULT_INITIAL_GAMES,
+            DEFAULT_CONFIDENCE_Z
+        );
+    }
+
+    public class Result {
+        public final HashMap<Genome, ScoreHistogram> genomeToScores;
+        public final int gamesPlayed;
+        public final int gamesBudget;
+        public final int rounds;
+        public final int contestedAtEnd;
+
+        protected Result(
+                HashMap<Genome, ScoreHistogram> genomeToScores,
+                int gamesPlayed,
+                int gamesBudget,
+                int rounds,
+                int contestedAtEnd
+        ) {
+            this.genomeToScores = genomeToScores;
+            this.gamesPlayed = gamesPlayed;
+            this.gamesBudget = gamesBudget;
+            this.rounds = rounds;
+            this.contestedAtEnd = contestedAtEnd;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "played(%d of %d games) saved(%d) rounds(%d) contested_at_end(%d)",
+                this.gamesPlayed,
+                this.gamesBudget,
+                this.gamesBudget - this.gamesPlayed,
+                this.rounds,
+                this.contestedAtEnd
+            );
+        }
+    }
+
+    private float getHalfWidth(ScoreHistogram scores) {
+        if (scores.getCount() < 2) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return this._confidenceZ * (float)scores.getStdev() / (float)Math.sqrt(scores.getCount());
+    }
+
+    /* Genomes whose confidence interval contains the line between the k-th
+     * and (k+1)-th best means, for any of the boundaries k.
+     */
+    private ArrayList<Genome> getContestedGenomes(
+            ArrayList<Genome> population,
+            HashMap<Genome, ScoreHistogram> genomeToScores,
+            int[] boundaries
+    ) {
+        /* Genomes whose simulations failed have no scores to race on. */
+        HashMap<Genome, Float> genomeToMean = new LinkedHashMap<>();
+        for (Genome genome : population) {
+            if (genomeToScores.get(genome).getCount() > 0) {
+                genomeToMean.put(genome, (float)genomeToScores.get(genome).getMean());
+            }
+        }
+        /* Stable, so ties keep their order in the population. */
+        ArrayList<Genome> ranked = new ArrayList<>(genomeToMean.keySet());
+        Collections.sort(ranked, new Comparator<Genome>() {
+            @Override
+            public int compare(Genome x, Genome y) {
+                return Float.compare(genomeToMean.get(y), genomeToMean.get(x));
+            }
+        });
+
+        ArrayList<Float> lines = new ArrayList<>();
+        for (int k : boundaries) {
+            if (k >= 1 && k < ranked.size()) {
+                lines.add((genomeToMean.get(ranked.get(k - 1)) + genomeToMean.get(ranked.get(k))) / 2);
+            }
+        }
+
+        ArrayList<Genome> contested = new ArrayList<>();
+        for (Genome genome : ranked) {
+            float mean = genomeToMean.get(genome);
+            float halfWidth = this.getHalfWidth(genomeToScores.get(genome));
+            for (float line : lines) {
+                if (mean - halfWidth <= line && line <= mean + halfWidth) {
+                    contested.add(genome);
+                    break;
+                }
+            }
+        }
+        return contested;
+    }
+
+    /* Each boundary k separates the best k genomes from the rest. When deal
+     * seeds are given each genome's n-th game is played on the n-th seed, so
+     * there must be at least as many seeds as games in the budget.
+     */
+    public Result evaluate(
+            ArrayList<Genome> population,
+            int[] boundaries,
+            Maybe<long[]> dealSeeds
+    ) {
+        HashMap<Genome, ScoreHistogram> genomeToScores = new LinkedHashMap<>();
+        for (Genome genome : population) {
+            genomeToScores.put(genome, new ScoreHistogram());
+        }
+
+        ArrayList<Genome> contested = new ArrayList<>(population);
+        int gamesPlayed = 0;
+        int rounds = 0;
+        int gamesPerGenome = this._initialGames;
+        while (!contested.isEmpty()) {
+            int gamesThisRound = Math.min(
+                gamesPerGenome,
+                (this._gamesPerGeneration - gamesPlayed) / contested.size()
+            );
+            if (gamesThisRound < 1) {
+                break;
+            }
+
+            ArrayList<SimulationCallable> simulations = new ArrayList<>();
+            for (Genome genome : contested) {
+                if (dealSeeds.hasValue()) {
+                    int gamesSoFar = (int)genomeToScores.get(genome).getCount();
+                    simulations.add(
+                        new SimulationCallable(
+                            genome,
+                            this._numberOfPlayers,
+                            Arrays.copyOfRange(dealSeeds.getValue(), gamesSoFar, gamesSoFar + gamesThisRound),
+                            this._decisionCache
+                        )
+                    );
+                } else {
+                    simulations.add(
+                        new SimulationCallable(
+                            genome,
+                            this._numberOfPlayers,
+                            gamesThisRound,
+                            this._decisionCache
+                        )
+                    );
+                }
+            }
+
+            for (SimulationCallable.Result result : this._simulator.run(simulations)) {
+                genomeToScores.get(result.genome).addAll(result.scores);
+            }
+
+            gamesPlayed += gamesThisRound * contested.size();
+            rounds++;
+            gamesPerGenome *= 2;
+            contested = this.getContestedGenomes(population, genomeToScores, boundaries);
+        }
+
+        for (Genome genome : population) {
+            if (genomeToScores.get(genome).getCount() == 0) {
+                genomeToScores.remove(genome);
+            }
+        }
+
+        return new Result(
+            genomeToScores,
+            gamesPlayed,
+            this._gamesPerGeneration,
+            rounds,
+            contested.size()
+        );
+    }
+}
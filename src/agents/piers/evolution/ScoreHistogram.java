@@ -0,0 +1,155 @@
+package agents.piers.evolution;
+
+/* The distribution of a set of game scores, kept as a count per score.
+ *
+ * Hanabi scores are whole numbers from 0 to 25, so 26 counters hold every
+ * game exactly however many are played, and merging two histograms is 26
+ * additions. Games that ended in an illegal action score -1 and are counted
+ * as failures; they count as -1 towards the mean, as they did when scores
+ * were averaged from a list.
+ *
+ * Not synchronized; callers sharing one between threads must lock it.
+ */
+public class ScoreHistogram {
+
+    public static final int MAX_SCORE = 25;
+
+    private long[] _counts = new long[MAX_SCORE + 1];
+    private long _failures;
+
+    public ScoreHistogram() { }
+
+    public ScoreHistogram(long[] counts, long failures) {
+        if (counts.length != MAX_SCORE + 1) {
+            throw new IllegalArgumentException(
+                String.format("Expected %d score counts, got %d.", MAX_SCORE + 1, counts.length)
+            );
+        }
+        this._counts = counts.clone();
+        this._failures = failures;
+    }
+
+    /* The games a FitnessStatistics over game scores has seen. */
+    public static ScoreHistogram of(FitnessStatistics statistics) {
+        return new ScoreHistogram(statistics.getHistogram(), statistics.getFailures());
+    }
+
+    public void add(int score) {
+        if (score < 0) {
+            this._failures++;
+        } else {
+            this._counts[Math.min(score, MAX_SCORE)]++;
+        }
+    }
+
+    public void addAll(ScoreHistogram other) {
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            this._counts[score] += other._counts[score];
+        }
+        this._failures += other._failures;
+    }
+
+    public long getCount() {
+        long count = this._failures;
+        for (long scoreCount : this._counts) {
+            count += scoreCount;
+        }
+        return count;
+    }
+
+    public long getFailures() { return this._failures; }
+    public long getCount(int score) { return score < 0 ? this._failures : this._counts[score]; }
+    public long[] getCounts() { return this._counts.clone(); }
+
+    private double getSum() {
+        double sum = -this._failures;
+        for (int score = 1; score <= MAX_SCORE; score++) {
+            sum += (double)score * this._counts[score];
+        }
+        return sum;
+    }
+
+    public double getMean() {
+        long count = this.getCount();
+        return count > 0 ? this.getSum() / count : Double.NaN;
+    }
+
+    /* The sum of squared deviations from the mean. */
+    public double getM2() {
+        long count = this.getCount();
+        if (count == 0) {
+            return 0;
+        }
+        double mean = this.getSum() / count;
+        double m2 = this._failures * (-1 - mean) * (-1 - mean);
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            m2 += this._counts[score] * (score - mean) * (score - mean);
+        }
+        return m2;
+    }
+
+    /* The sample variance, as MathUtils.stdevP computes. */
+    public double getVariance() {
+        long count = this.getCount();
+        return count > 1 ? this.getM2() / (count - 1) : 0;
+    }
+
+    public double getStdev() {
+        return Math.sqrt(this.getVariance());
+    }
+
+    /* The lowest score at least the given percentage (0 to 100) of games
+     * scored at or below, NaN if there were no games.
+     */
+    public double getPercentile(double percentile) {
+        long count = this.getCount();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long seen = this._failures;
+        if (seen >= rank) {
+            return -1;
+        }
+        for (int score = 0; score <= MAX_SCORE; score++) {
+            seen += this._counts[score];
+            if (seen >= rank) {
+                return score;
+            }
+        }
+        return MAX_SCORE;
+    }
+
+    public double getMin() {
+        return this.getPercentile(0);
+    }
+
+    public double getMax() {
+        return this.getPercentile(100);
+    }
+
+    public double getMedian() {
+        return this.getPercentile(50);
+    }
+
+    /* The fraction of games which played every card, NaN if there were no
+     * games.
+     */
+    public double getPerfectGameRate() {
+        long count = this.getCount();
+        return count > 0 ? (double)this._counts[MAX_SCORE] / count : Double.NaN;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "n(%d) mean(%.3f) stdev(%.3f) median(%.0f) perfect(%.1f%%) failures(%d)",
+            this.getCount(),
+            this.getMean(),
+            this.getStdev(),
+            this.getMedian(),
+            100 * this.getPerfectGameRate(),
+            this._failures
+        );
+    }
+}
@@ -1,8 +1,12 @@
 package agents.piers.evolution;
 
-import java.util.ArrayList;
+import java.util.SplittableRandom;
 import java.util.concurrent.Callable;
 
+import agents.piers.DecisionCache;
+import agents.piers.Maybe;
+import agents.piers.RandomUtils;
+import agents.piers.replay.IReplayRecorder;
 import hanabAI.Agent;
 import hanabAI.Hanabi;
 
@@ -11,40 +15,217 @@ public class SimulationCallable implements Callable<SimulationCallable.Result> {
     private Genome _genome;
     private int _numberOfPlayers;
     private int _numberOfRounds;
+    private Maybe<DecisionCache> _decisionCache;
+    private Maybe<long[]> _dealSeeds;
+    private Maybe<DealCorpus> _dealCorpus;
+    private int _firstDeal;
+    private Maybe<IReplayRecorder> _replayRecorder = new Maybe<IReplayRecorder>(null);
+    /* Keys a random stream per game, drawn when the simulation is created */
+    private long _seed;
 
-    public SimulationCallable(
+    private SimulationCallable(
             Genome genome,
             int numberOfPlayers,
-            int numberOfRounds
+            int numberOfRounds,
+            Maybe<long[]> dealSeeds,
+            Maybe<DealCorpus> dealCorpus,
+            int firstDeal,
+            Maybe<DecisionCache> decisionCache
     ) {
         this._genome = genome;
         this._numberOfPlayers = numberOfPlayers;
         this._numberOfRounds = numberOfRounds;
+        this._dealSeeds = dealSeeds;
+        this._dealCorpus = dealCorpus;
+        this._firstDeal = firstDeal;
+        this._decisionCache = decisionCache;
+        this._seed = RandomUtils.nextLong();
+    }
+
+    /* Plays one game on each seeded deal, in order, so that scores from
+     * different genomes evaluated on the same seeds can be paired by deal.
+     */
+    public SimulationCallable(
+            Genome genome,
+            int numberOfPlayers,
+            long[] dealSeeds,
+            Maybe<DecisionCache> decisionCache
+    ) {
+        this(
+            genome,
+            numberOfPlayers,
+            dealSeeds.length,
+            new Maybe<long[]>(dealSeeds),
+            new Maybe<DealCorpus>(null),
+            0,
+            decisionCache
+        );
+    }
+
+    /* Plays one game on each of the corpus' deals from the first, in order,
+     * so that scores can be paired by deal as with seeded deals.
+     */
+    public SimulationCallable(
+            Genome genome,
+            int numberOfPlayers,
+            DealCorpus dealCorpus,
+            int firstDeal,
+            int numberOfDeals,
+            Maybe<DecisionCache> decisionCache
+    ) {
+        this(
+            genome,
+            numberOfPlayers,
+            numberOfDeals,
+            new Maybe<long[]>(null),
+            new Maybe<DealCorpus>(dealCorpus),
+            firstDeal,
+            decisionCache
+        );
+        if (firstDeal < 0 || numberOfDeals < 0 || (long)firstDeal + numberOfDeals > dealCorpus.getNumberOfDeals()) {
+            throw new IllegalArgumentException(
+                String.format(
+                    "Deals %d to %d are not all in a corpus of %d deals.",
+                    firstDeal,
+                    (long)firstDeal + numberOfDeals - 1,
+                    dealCorpus.getNumberOfDeals()
+                )
+            );
+        }
+    }
+
+    public SimulationCallable(
+            Genome genome,
+            int numberOfPlayers,
+            int numberOfRounds,
+            Maybe<DecisionCache> decisionCache
+    ) {
+        this(
+            genome,
+            numberOfPlayers,
+            numberOfRounds,
+            new Maybe<long[]>(null),
+            new Maybe<DealCorpus>(null),
+            0,
+            decisionCache
+        );
+    }
+
+    public SimulationCallable(
+            Genome genome,
+            int numberOfPlayers,
+            int numberOfRounds
+    ) {
+        this(genome, numberOfPlayers, numberOfRounds, new Maybe<DecisionCache>(null));
     }
 
+    /* The scores of every game played, and for games played on seeded or
+     * corpus deals the score on each deal in order, so genomes can be paired
+     * deal by deal.
+     */
     public class Result {
         public final Genome genome;
-        public final ArrayList<Float> scores;
+        public final ScoreHistogram scores;
+        public final Maybe<byte[]> dealScores;
 
-        protected Result(Genome genome, ArrayList<Float> scores) {
+        protected Result(Genome genome, ScoreHistogram scores, Maybe<byte[]> dealScores) {
             this.genome = genome;
             this.scores = scores;
+            this.dealScores = dealScores;
         }
 
     }
 
+    public Genome getGenome() {
+        return this._genome;
+    }
+
+    public int getNumberOfRounds() {
+        return this._numberOfRounds;
+    }
+
+    public int getNumberOfPlayers() {
+        return this._numberOfPlayers;
+    }
+
+    public Maybe<long[]> getDealSeeds() {
+        return this._dealSeeds;
+    }
+
+    public Maybe<DealCorpus> getDealCorpus() {
+        return this._dealCorpus;
+    }
+
+    /* Whether every genome simulated with the same seeds or corpus deals
+     * plays the same deal in each round.
+     */
+    public boolean hasSharedDeals() {
+        return this._dealSeeds.hasValue() || this._dealCorpus.hasValue();
+    }
+
+    /* Records every game played from now on, returning this simulation. */
+    public SimulationCallable recordReplays(IReplayRecorder replayRecorder) {
+        this._replayRecorder = new Maybe<IReplayRecorder>(replayRecorder);
+        return this;
+    }
+
+    /* Plays a single one of the rounds, numbered from 1. Rounds don't share
+     * any state so they can be played in any order, or in parallel.
+     */
+    public int playRound(int round) {
+        SplittableRandom previous = RandomUtils.use(RandomUtils.stream(RandomUtils.GAMES, this._seed, round));
+        try {
+            return this.playGame(round);
+        } finally {
+            RandomUtils.use(previous);
+        }
+    }
+
+    private int playGame(int round) {
+        Agent[] agents = new Agent[this._numberOfPlayers];
+        for (int playerIndex = 0; playerIndex < this._numberOfPlayers; playerIndex++) {
+            agents[playerIndex] = Genome.asAgent(this._genome, playerIndex, this._decisionCache);
+        }
+        Hanabi game;
+        if (this._dealSeeds.hasValue()) {
+            game = new Hanabi(agents, this._dealSeeds.getValue()[round - 1]);
+        } else if (this._dealCorpus.hasValue()) {
+            game = new Hanabi(agents, this._dealCorpus.getValue().getDeal(this._firstDeal + round - 1));
+        } else {
+            game = new Hanabi(agents);
+        }
+        return this._replayRecorder.hasValue()
+            ? game.play(this._replayRecorder.getValue())
+            : game.play();
+    }
+
+    /* From each round's score, in round order. Scores from -1 to 25 fit in
+     * a byte.
+     */
+    public Result createResult(byte[] roundScores) {
+        ScoreHistogram scores = new ScoreHistogram();
+        for (byte score : roundScores) {
+            scores.add(score);
+        }
+        return new Result(
+            this._genome,
+            scores,
+            new Maybe<byte[]>(this.hasSharedDeals() ? roundScores : null)
+        );
+    }
+
+    /* When the order the games were played in is no longer known. */
+    public Result createResult(ScoreHistogram scores) {
+        return new Result(this._genome, scores, new Maybe<byte[]>(null));
+    }
+
     @Override
     public Result call() throws Exception {
-        ArrayList<Float> scores = new ArrayList<>();
+        byte[] roundScores = new byte[this._numberOfRounds];
         for (int round = 1; round <= this._numberOfRounds; round++) {
-            Agent[] agents = new Agent[this._numberOfPlayers];
-            for (int playerIndex = 0; playerIndex < this._numberOfPlayers; playerIndex++) {
-                agents[playerIndex] = Genome.asAgent(this._genome, playerIndex);
-            }
-            Hanabi game = new Hanabi(agents);
-            scores.add((float)game.play());
+            roundScores[round - 1] = (byte)this.playRound(round);
         }
 
-        return new Result(this._genome, scores);
+        return this.createResult(roundScores);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,269 @@
+package agents.piers.evolution;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import agents.piers.DecisionCache;
+import agents.piers.Maybe;
+import agents.piers.RandomUtils;
+import agents.piers.evolution.logging.EvolutionEventLog;
+
+/* Evolves genomes without generations.
+ *
+ * Each worker thread repeatedly picks two parents by tournament from the
+ * current population, evaluates their child, and inserts it into the ranked
+ * population, evicting the weakest genome once the population is full. No
+ * thread ever waits for another to finish its evaluation, so a slow genome
+ * only holds up the thread evaluating it.
+ *
+ * Births, evaluations and deaths go to the event log in the log directory,
+ * with each report interval's worth of evaluations standing in for a
+ * generation. The final population is logged, ranked, as one more.
+ */
+public class SteadyStateEvolutionRunner {
+
+    private static class Member {
+        public final Genome genome;
+        public final ScoreHistogram scores;
+        public final float fitness;
+        public final long id;
+
+        public Member(Genome genome, ScoreHistogram scores, long id) {
+            this.genome = genome;
+            this.scores = scores;
+            this.fitness = (float)scores.getMean();
+            this.id = id;
+        }
+    }
+
+    /* Strongest first; ties go to the older genome. */
+    private static final Comparator<Member> RANKING = new Comparator<Member>() {
+        @Override
+        public int compare(Member x, Member y) {
+            int byFitness = Float.compare(y.fitness, x.fitness);
+            return byFitness != 0 ? byFitness : Long.compare(x.id, y.id);
+        }
+    };
+
+    private ConcurrentSkipListSet<Member> _population = new ConcurrentSkipListSet<>(RANKING);
+    /* Evaluations started, which the budget is checked against */
+    private AtomicLong _evaluations = new AtomicLong();
+    /* Evaluations finished, guarded by the runner's lock */
+    private long _inserted = 0;
+    private long _reportInterval = 1;
+    private Maybe<EvolutionEventLog> _eventLog = new Maybe<>(null);
+    /* Distinct ids keep genomes with equal fitness distinct in the set. */
+    private AtomicLong _nextMemberId = new AtomicLong();
+    /* Where every genome the run breeds came from */
+    private GenomeLineage _lineage = new GenomeLineage();
+    private ArrayList<String> _seedDnas;
+    private int _initialPopulationSize;
+    private int _maximumPopulationSize;
+    private float _spawnSeedChance;
+    private int _tournamentSize;
+    private int _numberOfPlayers;
+    private int _numberOfSamplesInRound;
+    private Maybe<DecisionCache> _decisionCache;
+    private long _startNanos;
+
+    public SteadyStateEvolutionRunner(
+            ArrayList<String> seedDnas,
+            int initialPopulationSize,
+            int maximumPopulationSize,
+            float spawnSeedChance,
+            int tournamentSize,
+            int numberOfPlayers,
+            int numberOfSamplesInRound,
+            Maybe<DecisionCache> decisionCache
+    ) {
+        this._seedDnas = seedDnas;
+        this._initialPopulationSize = initialPopulationSize;
+        this._maximumPopulationSize = maximumPopulationSize;
+        this._spawnSeedChance = spawnSeedChance;
+        this._tournamentSize = tournamentSize;
+        this._numberOfPlayers = numberOfPlayers;
+        this._numberOfSamplesInRound = numberOfSamplesInRound;
+        this._decisionCache = decisionCache;
+    }
+
+    private Member tournament(Member[] members) {
+        Member winner = null;
+        for (int i = 0; i < this._tournamentSize; i++) {
+            Member contender = RandomUtils.choose(members);
+            if (winner == null || RANKING.compare(contender, winner) < 0) {
+                winner = contender;
+            }
+        }
+        return winner;
+    }
+
+    /* Until the population reaches its initial size it is filled with seeds
+     * and random genomes, after that with the children of its members.
+     */
+    private boolean isSpawning(Member[] members) {
+        return members.length < this._initialPopulationSize;
+    }
+
+    private Genome createCandidate(Member[] members) {
+        if (this.isSpawning(members)) {
+            return (
+                RandomUtils.chance(this._spawnSeedChance)
+                    ? Genome.parseDna(RandomUtils.choose(this._seedDnas))
+                    : Genome.spawnRandom()
+            ).recordIn(this._lineage);
+        }
+        Member X = this.tournament(members);
+        Member Y = this.tournament(members);
+        return Genome.mutate(Genome.crossover(X.genome, X.fitness, Y.genome, Y.fitness));
+    }
+
+    /* The stand-in generation an evaluation is logged under. */
+    private int getPeriod(long evaluation) {
+        return (int)((evaluation - 1) / this._reportInterval + 1);
+    }
+
+    /* Inserting is locked, so that the log sees each period's events
+     * together and in order.
+     */
+    private synchronized long insert(Genome genome, ScoreHistogram scores, String kind) {
+        long evaluation = ++this._inserted;
+        int period = this.getPeriod(evaluation);
+        if (this._eventLog.hasValue()) {
+            this._eventLog.getValue().birth(period, genome, kind);
+            this._eventLog.getValue().evaluation(period, genome, scores, -1);
+        }
+        this._population.add(new Member(genome, scores, this._nextMemberId.getAndIncrement()));
+        while (this._population.size() > this._maximumPopulationSize) {
+            Member evicted = this._population.pollLast();
+            if (this._eventLog.hasValue()) {
+                this._eventLog.getValue().death(period, evicted.genome, "selection");
+            }
+        }
+        return evaluation;
+    }
+
+    public String formatProgress() {
+        Member[] members = this._population.toArray(new Member[0]);
+        if (members.length == 0) {
+            return "Evaluations: 0";
+        }
+        float elapsedSeconds = (System.nanoTime() - this._startNanos) / (float)1e9;
+        return String.format(
+            "%nEvaluations %-8d: %-7s %-14s %-12s %-12s %-12s%n%n\tStrongest: %s%n",
+            this._inserted,
+            String.format("n(%d)", members.length),
+            String.format("rate(%.2f/s)", this._inserted / elapsedSeconds),
+            String.format("max_u(%5.2f)", members[0].fitness),
+            String.format("med_u(%5.2f)", members[members.length / 2].fitness),
+            String.format("min_u(%5.2f)", members[members.length - 1].fitness),
+            members[0].genome.formatDna()
+        );
+    }
+
+    private void work(long evaluations) {
+        /* Claim an evaluation before simulating it, so that no worker plays
+         * games for a genome past the budget.
+         */
+        while (this._evaluations.incrementAndGet() <= evaluations) {
+            Member[] members = this._population.toArray(new Member[0]);
+            String kind = this.isSpawning(members) ? "spawn" : "child";
+            Genome candidate = this.createCandidate(members);
+            ScoreHistogram scores;
+            try {
+                scores = new SimulationCallable(
+                    candidate,
+                    this._numberOfPlayers,
+                    this._numberOfSamplesInRound,
+                    this._decisionCache
+                ).call().scores;
+            } catch (Exception ex) {
+                System.err.println(ex);
+                continue;
+            }
+            long evaluation = this.insert(candidate, scores, kind);
+            if (evaluation % this._reportInterval == 0) {
+                System.out.println(this.formatProgress());
+            }
+        }
+    }
+
+    /* Runs until the given number of genomes have been evaluated, reporting
+     * progress every reportInterval evaluations, and gives the final
+     * population strongest first.
+     */
+    public ArrayList<Genome> run(String logDirectory, int threadCount, long evaluations, long reportInterval) {
+        this._reportInterval = reportInterval;
+        try {
+            this._eventLog = new Maybe<>(new EvolutionEventLog(logDirectory));
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+        this._startNanos = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            int worker = i;
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    RandomUtils.use(RandomUtils.stream(RandomUtils.EVOLUTION, worker));
+                    SteadyStateEvolutionRunner.this.work(evaluations);
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+            workers.shutdownNow();
+        }
+
+        ArrayList<Genome> population = new ArrayList<>();
+        int finalPeriod = this.getPeriod(this._inserted) + 1;
+        for (Member member : this._population) {
+            if (this._eventLog.hasValue()) {
+                this._eventLog.getValue().evaluation(finalPeriod, member.genome, member.scores, population.size());
+            }
+            population.add(member.genome);
+        }
+        if (this._eventLog.hasValue()) {
+            this._eventLog.getValue().close();
+        }
+        return population;
+    }
+
+    public static ArrayList<Genome> run(
+            String logDirectory,
+            ArrayList<String> seedDnas,
+            int threadCount,
+            int initialPopulationSize,
+            int maximumPopulationSize,
+            float spawnSeedChance,
+            int tournamentSize,
+            long evaluations,
+            int numberOfPlayers,
+            int numberOfSamplesInRound,
+            int decisionCacheEntries
+    ) {
+        SteadyStateEvolutionRunner runner = new SteadyStateEvolutionRunner(
+            seedDnas,
+            initialPopulationSize,
+            maximumPopulationSize,
+            spawnSeedChance,
+            tournamentSize,
+            numberOfPlayers,
+            numberOfSamplesInRound,
+            new Maybe<DecisionCache>(
+                decisionCacheEntries > 0 ? new DecisionCache(decisionCacheEntries) : null
+            )
+        );
+        /* Report roughly as often as the generational runner would */
+        return runner.run(logDirectory, threadCount, evaluations, Math.max(1, initialPopulationSize));
+    }
+}
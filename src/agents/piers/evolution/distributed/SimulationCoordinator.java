@@ -0,0 +1,263 @@
+package agents.piers.evolution.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import agents.piers.RandomUtils;
+import agents.piers.evolution.ISimulator;
+import agents.piers.evolution.ScoreHistogram;
+import agents.piers.evolution.SimulationCallable;
+
+/* Hands simulations out to worker processes over TCP.
+ *
+ * Each simulation is split into batches of deal seeds, and each batch is
+ * leased to one worker connection at a time. If the connection drops, or the
+ * result doesn't arrive before the lease expires, the connection is closed
+ * and the batch goes back on the queue for another worker. Workers send back
+ * a histogram of scores, so results don't say which deal got which score.
+ */
+public class SimulationCoordinator implements ISimulator, Closeable {
+
+    public static final int DEFAULT_GAMES_PER_BATCH = 5;
+    public static final long DEFAULT_LEASE_MILLIS = 60000;
+
+    private ServerSocket _serverSocket;
+    private int _gamesPerBatch;
+    private long _leaseMillis;
+    private LinkedBlockingQueue<Batch> _pending = new LinkedBlockingQueue<>();
+    private AtomicBoolean _closed = new AtomicBoolean(false);
+    private AtomicLong _nextBatchId = new AtomicLong();
+    private AtomicInteger _connectedWorkers = new AtomicInteger();
+    private AtomicLong _batchesCompleted = new AtomicLong();
+    private AtomicLong _batchesReassigned = new AtomicLong();
+    private AtomicLong _gamesCompleted = new AtomicLong();
+
+    /* The outcome of one simulation, filled in batch by batch. */
+    private static class Outcome {
+        public final SimulationCallable simulation;
+        public final ScoreHistogram scores = new ScoreHistogram();
+        public final AtomicBoolean failed = new AtomicBoolean(false);
+
+        public Outcome(SimulationCallable simulation) {
+            this.simulation = simulation;
+        }
+    }
+
+    private static class Batch {
+        public final long id;
+        public final Outcome outcome;
+        public final String dna;
+        public final long[] dealSeeds;
+        public final CountDownLatch done;
+
+        public Batch(long id, Outcome outcome, long[] dealSeeds, CountDownLatch done) {
+            this.id = id;
+            this.outcome = outcome;
+            this.dna = outcome.simulation.getGenome().formatDna();
+            this.dealSeeds = dealSeeds;
+            this.done = done;
+        }
+    }
+
+    public SimulationCoordinator(int port, int gamesPerBatch, long leaseMillis) throws IOException {
+        this._serverSocket = new ServerSocket();
+        this._serverSocket.setReuseAddress(true);
+        this._serverSocket.bind(new InetSocketAddress(port));
+        this._gamesPerBatch = Math.max(1, gamesPerBatch);
+        this._leaseMillis = leaseMillis;
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SimulationCoordinator.this.acceptWorkers();
+            }
+        }, "simulation-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public SimulationCoordinator(int port) throws IOException {
+        this(port, DEFAULT_GAMES_PER_BATCH, DEFAULT_LEASE_MILLIS);
+    }
+
+    /* The port actually listened on, useful when constructed with port 0. */
+    public int getPort() {
+        return this._serverSocket.getLocalPort();
+    }
+
+    public int getConnectedWorkers() {
+        return this._connectedWorkers.get();
+    }
+
+    private void acceptWorkers() {
+        while (!this._closed.get()) {
+            try {
+                Socket socket = this._serverSocket.accept();
+                Thread connection = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        SimulationCoordinator.this.serveWorker(socket);
+                    }
+                }, "simulation-worker-" + socket.getRemoteSocketAddress());
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException ex) {
+                if (!this._closed.get()) {
+                    System.err.println(ex);
+                }
+            }
+        }
+    }
+
+    private void serveWorker(Socket socket) {
+        Batch leased = null;
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            socket.setSoTimeout((int)this._leaseMillis);
+            SimulationProtocol.readHello(in);
+            this._connectedWorkers.incrementAndGet();
+            try {
+                while (!this._closed.get()) {
+                    leased = this._pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (leased == null) {
+                        continue;
+                    }
+
+                    out.writeByte(SimulationProtocol.WORK);
+                    out.writeLong(leased.id);
+                    SimulationProtocol.writeString(out, leased.dna);
+                    out.writeInt(leased.outcome.simulation.getNumberOfPlayers());
+                    out.writeInt(leased.dealSeeds.length);
+                    for (long seed : leased.dealSeeds) {
+                        out.writeLong(seed);
+                    }
+                    out.flush();
+
+                    /* Blocks for at most the lease time */
+                    byte reply = in.readByte();
+                    long id = in.readLong();
+                    if (id != leased.id) {
+                        throw new IOException("Worker replied about the wrong batch.");
+                    }
+                    if (reply == SimulationProtocol.RESULT) {
+                        long failures = in.readLong();
+                        long[] histogram = new long[SimulationProtocol.HISTOGRAM_BUCKETS];
+                        for (int i = 0; i < histogram.length; i++) {
+                            histogram[i] = in.readLong();
+                        }
+                        /* Several connections may finish batches of one simulation */
+                        synchronized (leased.outcome) {
+                            leased.outcome.scores.addAll(new ScoreHistogram(histogram, failures));
+                        }
+                        this._gamesCompleted.addAndGet(leased.dealSeeds.length);
+                    } else if (reply == SimulationProtocol.ERROR) {
+                        System.err.println(SimulationProtocol.readString(in));
+                        leased.outcome.failed.set(true);
+                    } else {
+                        throw new IOException("Unexpected reply " + reply);
+                    }
+                    this._batchesCompleted.incrementAndGet();
+                    leased.done.countDown();
+                    leased = null;
+                }
+                out.writeByte(SimulationProtocol.SHUTDOWN);
+                out.flush();
+            } finally {
+                this._connectedWorkers.decrementAndGet();
+            }
+        } catch (IOException | InterruptedException ex) {
+            /* The worker crashed, hung past its lease, or spoke nonsense */
+            if (leased != null) {
+                this._batchesReassigned.incrementAndGet();
+                this._pending.add(leased);
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                System.err.println(ex);
+            }
+        }
+    }
+
+    /* Blocks until workers have played every game of every simulation. */
+    @Override
+    public List<SimulationCallable.Result> run(List<SimulationCallable> simulations) {
+        ArrayList<Outcome> outcomes = new ArrayList<>();
+        ArrayList<long[]> batchSeeds = new ArrayList<>();
+        ArrayList<Outcome> batchOutcomes = new ArrayList<>();
+        for (SimulationCallable simulation : simulations) {
+            /* Workers are only sent deal seeds, and may not have the file */
+            if (simulation.getDealCorpus().hasValue()) {
+                throw new IllegalArgumentException("Simulations on a deal corpus can't be played by remote workers.");
+            }
+            Outcome outcome = new Outcome(simulation);
+            outcomes.add(outcome);
+            /* Without shared deals each game gets a fresh random deal. */
+            long[] dealSeeds = simulation.getDealSeeds().hasValue()
+                ? simulation.getDealSeeds().getValue()
+                : RandomUtils.current().longs(simulation.getNumberOfRounds()).toArray();
+            for (int first = 0; first < dealSeeds.length; first += this._gamesPerBatch) {
+                batchSeeds.add(Arrays.copyOfRange(dealSeeds, first, Math.min(dealSeeds.length, first + this._gamesPerBatch)));
+                batchOutcomes.add(outcome);
+            }
+        }
+
+        CountDownLatch done = new CountDownLatch(batchSeeds.size());
+        for (int i = 0; i < batchSeeds.size(); i++) {
+            this._pending.add(
+                new Batch(this._nextBatchId.getAndIncrement(), batchOutcomes.get(i), batchSeeds.get(i), done)
+            );
+        }
+        try {
+            done.await();
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+            Thread.currentThread().interrupt();
+        }
+
+        ArrayList<SimulationCallable.Result> results = new ArrayList<>();
+        for (Outcome outcome : outcomes) {
+            if (!outcome.failed.get()) {
+                results.add(outcome.simulation.createResult(outcome.scores));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this._closed.set(true);
+        this._serverSocket.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "port(%d) workers(%d) batches(%d) reassigned(%d) games(%d)",
+            this.getPort(),
+            this._connectedWorkers.get(),
+            this._batchesCompleted.get(),
+            this._batchesReassigned.get(),
+            this._gamesCompleted.get()
+        );
+    }
+}
@@ -0,0 +1,53 @@
+package agents.piers.evolution.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import agents.piers.evolution.ScoreHistogram;
+
+/* The messages passed between a SimulationCoordinator and its workers.
+ *
+ * A worker opens one connection per simulation thread and sends HELLO. From
+ * then on the coordinator sends WORK (a genome and the deal seeds to play it
+ * on) and the worker answers with RESULT (a histogram of the scores) or
+ * ERROR, until the coordinator sends SHUTDOWN.
+ */
+class SimulationProtocol {
+
+    public static final int MAGIC = 0x48414E42;
+    public static final int VERSION = 1;
+
+    public static final byte WORK = 1;
+    public static final byte SHUTDOWN = 2;
+    public static final byte RESULT = 3;
+    public static final byte ERROR = 4;
+
+    /* Scores run from 0 to 25. */
+    public static final int HISTOGRAM_BUCKETS = ScoreHistogram.MAX_SCORE + 1;
+
+    public static void writeHello(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.flush();
+    }
+
+    public static void readHello(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a simulation worker, or a different protocol version.");
+        }
+    }
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,118 @@
+package agents.piers.evolution.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+
+import agents.piers.DecisionCache;
+import agents.piers.Maybe;
+import agents.piers.evolution.Genome;
+import agents.piers.evolution.ScoreHistogram;
+import agents.piers.evolution.SimulationCallable;
+
+/* Plays the games a SimulationCoordinator hands out, with one connection
+ * (and thread) per simulation thread. Run as:
+ *
+ *     SimulationWorker <host> <port> [threads] [solve endgames 0|1]
+ */
+public class SimulationWorker implements Runnable {
+
+    private String _host;
+    private int _port;
+
+    public SimulationWorker(String host, int port) {
+        this._host = host;
+        this._port = port;
+    }
+
+    private static void play(
+            DataInputStream in,
+            DataOutputStream out
+    ) throws IOException {
+        long id = in.readLong();
+        String dna = SimulationProtocol.readString(in);
+        int numberOfPlayers = in.readInt();
+        long[] dealSeeds = new long[in.readInt()];
+        for (int i = 0; i < dealSeeds.length; i++) {
+            dealSeeds[i] = in.readLong();
+        }
+
+        ScoreHistogram scores = new ScoreHistogram();
+        try {
+            SimulationCallable simulation = new SimulationCallable(
+                Genome.parseDna(dna),
+                numberOfPlayers,
+                dealSeeds,
+                new Maybe<DecisionCache>(null)
+            );
+            for (int round = 1; round <= simulation.getNumberOfRounds(); round++) {
+                scores.add(simulation.playRound(round));
+            }
+        } catch (RuntimeException ex) {
+            out.writeByte(SimulationProtocol.ERROR);
+            out.writeLong(id);
+            SimulationProtocol.writeString(out, ex.toString());
+            out.flush();
+            return;
+        }
+
+        out.writeByte(SimulationProtocol.RESULT);
+        out.writeLong(id);
+        out.writeLong(scores.getFailures());
+        for (long count : scores.getCounts()) {
+            out.writeLong(count);
+        }
+        out.flush();
+    }
+
+    /* Serves the coordinator until it shuts us down or goes away. */
+    @Override
+    public void run() {
+        try (Socket socket = new Socket(this._host, this._port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            SimulationProtocol.writeHello(out);
+            while (true) {
+                byte message = in.readByte();
+                if (message == SimulationProtocol.SHUTDOWN) {
+                    return;
+                } else if (message == SimulationProtocol.WORK) {
+                    SimulationWorker.play(in, out);
+                } else {
+                    throw new IOException("Unexpected message " + message);
+                }
+            }
+        } catch (EOFException ex) {
+            /* The coordinator has gone */
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7373;
+        int threads = args.length > 2
+            ? Integer.parseInt(args[2])
+            : Runtime.getRuntime().availableProcessors();
+        if (args.length > 3) {
+            Genome.setSolveEndgames(Integer.parseInt(args[3]) != 0);
+        }
+
+        ArrayList<Thread> connections = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread connection = new Thread(new SimulationWorker(host, port), "simulation-worker-" + i);
+            connection.start();
+            connections.add(connection);
+        }
+        for (Thread connection : connections) {
+            connection.join();
+        }
+    }
+}
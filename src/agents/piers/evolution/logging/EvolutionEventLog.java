@@ -0,0 +1,204 @@
+package agents.piers.evolution.logging;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import agents.piers.evolution.Genome;
+import agents.piers.evolution.GenomeLineage;
+import agents.piers.evolution.ScoreHistogram;
+
+/* An append-only log of every genome's birth, evaluation and death, one JSON
+ * object per line in events.jsonl in the log directory.
+ *
+ * Records are formatted by the evolution thread and handed through a bounded
+ * queue to a background thread which does the writing, so the evolution
+ * only waits on the disk when it gets a whole queue ahead of it. The
+ * generation by generation YAML can be rebuilt from the log with
+ * EvolutionEventLogConverter.
+ */
+public class EvolutionEventLog implements Closeable {
+
+    public static final String FILE_NAME = "events.jsonl";
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /* Compared by reference to tell the writer to stop */
+    private static final String END_OF_LOG = new String();
+
+    private ArrayBlockingQueue<String> _queue;
+    private Thread _writerThread;
+    private AtomicLong _events = new AtomicLong();
+    private AtomicLong _stalls = new AtomicLong();
+
+    public EvolutionEventLog(String logDirectory, int capacity) throws IOException {
+        File file = Paths.get(logDirectory, FILE_NAME).toAbsolutePath().toFile();
+        if (!file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        /* Appending lets a resumed run carry on the same log */
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8")
+        );
+        this._queue = new ArrayBlockingQueue<>(capacity);
+        this._writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                EvolutionEventLog.this.write(writer);
+            }
+        }, "evolution-event-log");
+        this._writerThread.setDaemon(true);
+        this._writerThread.start();
+    }
+
+    public EvolutionEventLog(String logDirectory) throws IOException {
+        this(logDirectory, DEFAULT_CAPACITY);
+    }
+
+    private void write(Writer writer) {
+        try {
+            while (true) {
+                String record = this._queue.take();
+                if (record == END_OF_LOG) {
+                    break;
+                }
+                writer.write(record);
+                writer.write('\n');
+                /* Keep the file current whenever we catch up */
+                if (this._queue.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException | InterruptedException ex) {
+            System.err.println(ex);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                System.err.println(ex);
+            }
+        }
+    }
+
+    private void append(String record) {
+        this._events.incrementAndGet();
+        if (this._queue.offer(record)) {
+            return;
+        }
+        this._stalls.incrementAndGet();
+        try {
+            this._queue.put(record);
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int)c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /* How the genome came to be in the population: spawn, child, immigrant
+     * or resume.
+     */
+    public void birth(int generation, Genome genome, String kind) {
+        long[] parentIds = genome.getParentIds();
+        StringBuilder parents = new StringBuilder();
+        for (long parentId : parentIds) {
+            if (parentId != GenomeLineage.NONE) {
+                parents.append(parents.length() > 0 ? "," : "").append(parentId);
+            }
+        }
+        long mutationOfId = genome.getMutationOfId();
+        this.append(
+            String.format(
+                "{\"event\":\"birth\",\"generation\":%d,\"genome\":%d,\"kind\":%s,\"parents\":[%s],\"mutationOf\":%s,\"dna\":%s}",
+                generation,
+                genome.getId(),
+                quote(kind),
+                parents,
+                mutationOfId != GenomeLineage.NONE ? Long.toString(mutationOfId) : "null",
+                quote(genome.formatDna())
+            )
+        );
+    }
+
+    /* The scores the genome was judged on, as the number of games ending
+     * on each score from 0 to 25 and the number of failed games, and its
+     * rank amongst the survivors (-1 if it didn't survive).
+     */
+    public void evaluation(int generation, Genome genome, ScoreHistogram scores, int ranking) {
+        StringBuilder histogram = new StringBuilder();
+        for (long count : scores.getCounts()) {
+            histogram.append(histogram.length() > 0 ? "," : "").append(count);
+        }
+        this.append(
+            String.format(
+                "{\"event\":\"evaluation\",\"generation\":%d,\"genome\":%d,\"ranking\":%d,\"histogram\":[%s],\"failures\":%d}",
+                generation,
+                genome.getId(),
+                ranking,
+                histogram,
+                scores.getFailures()
+            )
+        );
+    }
+
+    /* Why the genome left the population: selection or cull. */
+    public void death(int generation, Genome genome, String cause) {
+        this.append(
+            String.format(
+                "{\"event\":\"death\",\"generation\":%d,\"genome\":%d,\"cause\":%s}",
+                generation,
+                genome.getId(),
+                quote(cause)
+            )
+        );
+    }
+
+    /* Genome ids start again in a resumed process, so everything logged
+     * before a resume is forgotten by the converter.
+     */
+    public void resume(int generation) {
+        this.append(String.format("{\"event\":\"resume\",\"generation\":%d}", generation));
+    }
+
+    /* Waits for everything logged so far to be written. */
+    @Override
+    public void close() {
+        try {
+            this._queue.put(END_OF_LOG);
+            this._writerThread.join();
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "events(%d) queued(%d) stalls(%d)",
+            this._events.get(),
+            this._queue.size(),
+            this._stalls.get()
+        );
+    }
+}
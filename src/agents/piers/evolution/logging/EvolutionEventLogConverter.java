@@ -0,0 +1,196 @@
+package agents.piers.evolution.logging;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.yaml.snakeyaml.Yaml;
+
+import agents.piers.evolution.ScoreHistogram;
+
+/* Rebuilds the generation-<n>.txt YAML summaries from an events.jsonl log by
+ * replaying the births and deaths to know who was alive in each generation.
+ * Run as:
+ *
+ *     EvolutionEventLogConverter <log directory> [output directory]
+ */
+public class EvolutionEventLogConverter {
+
+    private String _outputDirectory;
+    private LinkedHashMap<Long, GenomeYAML> _alive = new LinkedHashMap<>();
+    private ScoreHistogram _initialPopulationFitness = null;
+    private int _generationsWritten = 0;
+
+    /* What we know about the generation being replayed */
+    private int _generation = -1;
+    private ArrayList<GenomeYAML> _population;
+    private ArrayList<GenomeYAML> _children = new ArrayList<>();
+    private ScoreHistogram _populationFitness = new ScoreHistogram();
+    private HashMap<String, ScoreHistogram> _nameToFitness = new LinkedHashMap<>();
+    private HashMap<String, Integer> _nameToRanking = new HashMap<>();
+
+    public EvolutionEventLogConverter(String outputDirectory) {
+        this._outputDirectory = outputDirectory;
+    }
+
+    private static long getLong(Map<String, Object> event, String key) {
+        return ((Number)event.get(key)).longValue();
+    }
+
+    /* Logs written before evaluations were histograms list every score. */
+    @SuppressWarnings("unchecked")
+    private static ScoreHistogram getScores(Map<String, Object> event) {
+        ScoreHistogram scores = new ScoreHistogram();
+        if (event.containsKey("scores")) {
+            for (Object score : (List<Object>)event.get("scores")) {
+                scores.add(((Number)score).intValue());
+            }
+            return scores;
+        }
+        List<Object> histogram = (List<Object>)event.get("histogram");
+        long[] counts = new long[histogram.size()];
+        for (int score = 0; score < counts.length; score++) {
+            counts[score] = ((Number)histogram.get(score)).longValue();
+        }
+        return new ScoreHistogram(counts, getLong(event, "failures"));
+    }
+
+    /* The population is everyone alive once the generation's spawns have
+     * been born, which is when anything else first happens in it.
+     */
+    private void snapshotPopulation() {
+        if (this._population == null) {
+            this._population = new ArrayList<>(this._alive.values());
+        }
+    }
+
+    private void resetGeneration(int generation) {
+        this._generation = generation;
+        this._population = null;
+        this._children = new ArrayList<>();
+        this._populationFitness = new ScoreHistogram();
+        this._nameToFitness = new LinkedHashMap<>();
+        this._nameToRanking = new HashMap<>();
+    }
+
+    private void startGeneration(int generation) throws IOException {
+        if (!this._nameToFitness.isEmpty()) {
+            if (this._initialPopulationFitness == null) {
+                this._initialPopulationFitness = this._populationFitness;
+            }
+            this.snapshotPopulation();
+            EvolutionLogger.writeSummaryYAML(
+                this._outputDirectory,
+                EvolutionLogger.createSummaryYAML(
+                    this._generation,
+                    this._initialPopulationFitness,
+                    this._population.size(),
+                    this._populationFitness,
+                    this._nameToFitness,
+                    this._nameToRanking,
+                    this._population,
+                    this._children
+                )
+            );
+            this._generationsWritten++;
+        }
+        this.resetGeneration(generation);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void accept(Map<String, Object> event) throws IOException {
+        String type = (String)event.get("event");
+        int generation = (int)getLong(event, "generation");
+        /* A run resumes from a checkpoint at the start of a generation, so
+         * whatever was logged of that generation or later is thrown away.
+         */
+        if (type.equals("resume")) {
+            if (this._generation < generation) {
+                this.startGeneration(generation);
+            } else {
+                this.resetGeneration(generation);
+            }
+            this._alive.clear();
+            return;
+        }
+        if (generation != this._generation) {
+            this.startGeneration(generation);
+        }
+
+        if (type.equals("birth")) {
+            String kind = (String)event.get("kind");
+            if (!kind.equals("spawn") && !kind.equals("resume")) {
+                this.snapshotPopulation();
+            }
+            ArrayList<String> parentNames = new ArrayList<>();
+            for (Object parentId : (List<Object>)event.get("parents")) {
+                parentNames.add(parentId.toString());
+            }
+            GenomeYAML genome = new GenomeYAML(
+                event.get("genome").toString(),
+                generation,
+                parentNames.toArray(new String[0]),
+                event.get("mutationOf") != null ? event.get("mutationOf").toString() : null,
+                (String)event.get("dna")
+            );
+            this._alive.put(getLong(event, "genome"), genome);
+            if (kind.equals("child")) {
+                this._children.add(genome);
+            }
+        } else if (type.equals("evaluation")) {
+            this.snapshotPopulation();
+            ScoreHistogram fitness = getScores(event);
+            this._populationFitness.addAll(fitness);
+            String name = event.get("genome").toString();
+            this._nameToFitness.put(name, fitness);
+            int ranking = (int)getLong(event, "ranking");
+            if (ranking >= 0) {
+                this._nameToRanking.put(name, ranking);
+            }
+        } else if (type.equals("death")) {
+            this.snapshotPopulation();
+            this._alive.remove(getLong(event, "genome"));
+        }
+    }
+
+    /* Writes out the last generation. */
+    public int finish() throws IOException {
+        this.startGeneration(-1);
+        return this._generationsWritten;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static int convert(String logDirectory, String outputDirectory) throws IOException {
+        EvolutionEventLogConverter converter = new EvolutionEventLogConverter(outputDirectory);
+        /* JSON is YAML, so SnakeYAML can read the events */
+        Yaml yaml = new Yaml();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(
+                    new FileInputStream(Paths.get(logDirectory, EvolutionEventLog.FILE_NAME).toFile()),
+                    "UTF-8"
+                ))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                converter.accept((Map<String, Object>)yaml.load(line));
+            }
+        }
+        return converter.finish();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String logDirectory = args[0];
+        String outputDirectory = args.length > 1 ? args[1] : logDirectory;
+        int generations = convert(logDirectory, outputDirectory);
+        System.out.println(String.format("Wrote %d generations to %s", generations, outputDirectory));
+    }
+}
@@ -1,115 +1,89 @@
 package agents.piers.evolution.logging;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 
-import agents.piers.Func;
-import agents.piers.Linq;
-import agents.piers.MathUtils;
-import agents.piers.evolution.Genome;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import agents.piers.evolution.ScoreHistogram;
 
 public class EvolutionLogger {
 
+    /* Reads everything from the histograms of scores kept as results
+     * arrived, so nothing here rescans the scores.
+     */
     public static GenerationSummaryYAML createSummaryYAML(
             int generation,
-            ArrayList<Float> initialPopulationScores,
-            ArrayList<Genome> population,
-            HashMap<Genome, ArrayList<Float>> genomeToScores,
-            ArrayList<Genome> orderedGenomes,
-            ArrayList<Genome> children
+            ScoreHistogram initialPopulationFitness,
+            int populationSize,
+            ScoreHistogram populationFitness,
+            HashMap<String, ScoreHistogram> nameToFitness,
+            HashMap<String, Integer> nameToRanking,
+            ArrayList<GenomeYAML> population,
+            ArrayList<GenomeYAML> children
     ) {
-        float initialPopulationAverageScoreMean = Linq.avgF(initialPopulationScores).getValue();
-        float initialPopulationAverageScoreStdev = Linq.avgF(initialPopulationScores).getValue();
-        ArrayList<Float> pScores = Linq.chain(genomeToScores.values());
-        float pScoresMean = Linq.avgF(pScores).getValue();
-        float pScoresStdev = MathUtils.stdevP(pScores);
+        float initialMean = (float)initialPopulationFitness.getMean();
+        float initialStdev = (float)initialPopulationFitness.getStdev();
+        ArrayList<FitnessYAML> rankings = new ArrayList<>();
+        for (Map.Entry<String, ScoreHistogram> entry : nameToFitness.entrySet()) {
+            ScoreHistogram fitness = entry.getValue();
+            rankings.add(
+                new FitnessYAML(
+                    entry.getKey(),
+                    nameToRanking.containsKey(entry.getKey()) ? nameToRanking.get(entry.getKey()) : -1,
+                    (float)fitness.getMin(),
+                    (float)fitness.getMax(),
+                    (float)fitness.getMean(),
+                    (float)fitness.getStdev(),
+                    (float)fitness.getMedian(),
+                    (float)fitness.getPerfectGameRate(),
+                    (float)fitness.getMean() - initialMean,
+                    (float)fitness.getStdev() - initialStdev
+                )
+            );
+        }
         return new GenerationSummaryYAML(
             generation,
             new PopulationStatisticsYAML(
-                population.size(),
-                Linq.min(pScores).getValue(),
-                Linq.max(pScores).getValue(),
-                pScoresMean,
-                pScoresStdev,
-                pScoresStdev - initialPopulationAverageScoreMean,
-                pScoresStdev - initialPopulationAverageScoreStdev
+                populationSize,
+                (float)populationFitness.getMin(),
+                (float)populationFitness.getMax(),
+                (float)populationFitness.getMean(),
+                (float)populationFitness.getStdev(),
+                (float)populationFitness.getMedian(),
+                (float)populationFitness.getPerfectGameRate(),
+                (float)populationFitness.getMean() - initialMean,
+                (float)populationFitness.getStdev() - initialStdev
             ),
-            Linq.map(
-                genomeToScores.keySet(),
-                new Func<Genome, FitnessYAML>() {
-                    @Override
-                    public FitnessYAML apply(Genome genome) {
-                        ArrayList<Float> scores = genomeToScores.get(genome);
-                        float scoreMean = Linq.avgF(pScores).getValue();
-                        float scoreStdev = MathUtils.stdevP(pScores);
-                        return new FitnessYAML(
-                            genome.getName(),
-                            orderedGenomes.indexOf(genome),
-                            Linq.min(scores).getValue(),
-                            Linq.max(scores).getValue(),
-                            scoreMean,
-                            scoreStdev,
-                            scoreMean - initialPopulationAverageScoreMean,
-                            scoreStdev - initialPopulationAverageScoreStdev
-                        );
-                    }
-                }
-            ).toArray(new FitnessYAML[0]),
-            Linq.map(
-                population,
-                new Func<Genome, GenomeYAML>() {
-                    @Override
-                    public GenomeYAML apply(Genome genome) {
-                        String[] parentNames = genome.getParents().hasValue()
-                            ? Linq.map(
-                                Arrays.asList(genome.getParents().getValue()),
-                                new Func<Genome, String>() {
-                                    @Override
-                                    public String apply(Genome genome) {
-                                        return genome.getName();
-                                    }
-                                }
-                            ).toArray(new String[0])
-                            : new String[0];
-                        return new GenomeYAML(
-                            genome.getName(),
-                            parentNames,
-                            genome.getGenomeThisIsAMutationOf().hasValue()
-                                ? genome.getGenomeThisIsAMutationOf().getValue().getName()
-                                : null,
-                            genome.formatDna()
-                        );
-                    }
-                }
-            ).toArray(new GenomeYAML[0]),
-            Linq.map(
-                children,
-                new Func<Genome, GenomeYAML>() {
-                    @Override
-                    public GenomeYAML apply(Genome genome) {
-                        String[] parentNames = genome.getParents().hasValue()
-                            ? Linq.map(
-                                Arrays.asList(genome.getParents().getValue()),
-                                new Func<Genome, String>() {
-                                    @Override
-                                    public String apply(Genome genome) {
-                                        return genome.getName();
-                                    }
-                                }
-                            ).toArray(new String[0])
-                            : new String[0];
-                        return new GenomeYAML(
-                            genome.getName(),
-                            parentNames,
-                            genome.getGenomeThisIsAMutationOf().hasValue()
-                                ? genome.getGenomeThisIsAMutationOf().getValue().getName()
-                                : null,
-                            genome.formatDna()
-                        );
-                    }
-                }
-            ).toArray(new GenomeYAML[0])
+            rankings.toArray(new FitnessYAML[0]),
+            population.toArray(new GenomeYAML[0]),
+            children.toArray(new GenomeYAML[0])
         );
     }
-}
\ No newline at end of file
+
+    public static void writeSummaryYAML(String logDirectory, GenerationSummaryYAML summary) throws IOException {
+        File logFile = Paths
+            .get(logDirectory, String.format("generation-%d.txt", summary.generation))
+            .toAbsolutePath()
+            .toFile();
+        if (!logFile.getParentFile().exists()) {
+            logFile.getParentFile().mkdirs();
+        }
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(logFile, false), "UTF-8"))) {
+            DumperOptions options = new DumperOptions();
+            options.setIndent(4);
+            options.setPrettyFlow(true);
+            Yaml yaml  = new Yaml(options);
+            yaml.dump(summary, writer);
+        }
+    }
+}
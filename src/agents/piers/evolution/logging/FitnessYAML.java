@@ -8,6 +8,8 @@ public class FitnessYAML {
     public float scoreMax;
     public float scoreMean;
     public float scoreStdev;
+    public float scoreMedian;
+    public float scorePerfectRate;
     public float scoreMeanDelta;
     public float scoreStdevDelta;
 
@@ -18,6 +20,8 @@ public class FitnessYAML {
             float scoreMax,
             float scoreMean,
             float scoreStdev,
+            float scoreMedian,
+            float scorePerfectRate,
             float scoreMeanDelta,
             float scoreStdevDelta
     ) {
@@ -27,6 +31,8 @@ public class FitnessYAML {
         this.scoreMax = scoreMax;
         this.scoreMean = scoreMean;
         this.scoreStdev = scoreStdev;
+        this.scoreMedian = scoreMedian;
+        this.scorePerfectRate = scorePerfectRate;
         this.scoreMeanDelta = scoreMeanDelta;
         this.scoreStdevDelta = scoreStdevDelta;
     }
@@ -2,17 +2,20 @@ package agents.piers.evolution.logging;
 
 public class GenomeYAML {
     public String name;
+    public int generation;
     public String[] parentsNames;
     public String mutationOf;
     public String dna;
 
     public GenomeYAML(
             String name,
+            int generation,
             String[] parentsNames,
             String mutationOf,
             String dna
     ) {
         this.name = name;
+        this.generation = generation;
         this.parentsNames = parentsNames;
         this.mutationOf = mutationOf;
         this.dna = dna;
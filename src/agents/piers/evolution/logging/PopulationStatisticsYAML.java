@@ -6,6 +6,8 @@ public class PopulationStatisticsYAML {
     public float pScoresMax;
     public float pScoresMean;
     public float pScoresStdev;
+    public float pScoresMedian;
+    public float pScoresPerfectRate;
     public float pScoresMeanDelta;
     public float pScoresStdevDelta;
 
@@ -15,6 +17,8 @@ public class PopulationStatisticsYAML {
             float pScoresMax,
             float pScoresMean,
             float pScoresStdev,
+            float pScoresMedian,
+            float pScoresPerfectRate,
             float pScoresMeanDelta,
             float pScoresStdevDelta
     ) {
@@ -23,6 +27,8 @@ public class PopulationStatisticsYAML {
         this.pScoresMax = pScoresMax;
         this.pScoresMean = pScoresMean;
         this.pScoresStdev = pScoresStdev;
+        this.pScoresMedian = pScoresMedian;
+        this.pScoresPerfectRate = pScoresPerfectRate;
         this.pScoresMeanDelta = pScoresMeanDelta;
         this.pScoresStdevDelta = pScoresStdevDelta;
     }
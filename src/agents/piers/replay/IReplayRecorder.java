@@ -0,0 +1,10 @@
+package agents.piers.replay;
+
+import java.io.Closeable;
+
+/* Somewhere played games can be kept, a single file or a store. Games may
+ * be recorded from any number of threads.
+ */
+public interface IReplayRecorder extends Closeable {
+    void record(Replay replay);
+}
@@ -0,0 +1,238 @@
+package agents.piers.replay;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Stack;
+
+import agents.piers.CardUtils;
+import hanabAI.Action;
+import hanabAI.ActionType;
+import hanabAI.Card;
+import hanabAI.Colour;
+import hanabAI.IllegalActionException;
+import hanabAI.State;
+
+/* One played game, kept as little as is needed to play it again: the deck
+ * as it was dealt and each turn's action packed into a short.
+ *
+ * An action is packed as its type in the lowest two bits, the player in the
+ * next three, then the card played or discarded or the player hinted in the
+ * next three, then the colour or value hinted in the next three. Which
+ * cards a hint points at follows from the hand it was given to, so isn't
+ * kept. The states of the game are rebuilt one at a time as they're asked
+ * for.
+ */
+public class Replay {
+
+    private String[] _players;
+    /* Card ids, from the bottom of the deck to the top */
+    private byte[] _deal;
+    private short[] _actions;
+    private int _score;
+
+    public Replay(String[] players, byte[] deal, short[] actions, int score) {
+        this._players = players;
+        this._deal = deal;
+        this._actions = actions;
+        this._score = score;
+    }
+
+    /* The deck should be as it was before the hands were dealt, and the
+     * actions those which were played legally. A game ended by an illegal
+     * action scores -1.
+     */
+    public static Replay of(String[] players, Card[] deal, List<Action> actions, int score) {
+        byte[] cardIds = new byte[deal.length];
+        for (int i = 0; i < deal.length; i++) {
+            cardIds[i] = (byte)CardUtils.getCardId(deal[i]);
+        }
+        short[] codes = new short[actions.size()];
+        for (int turn = 0; turn < codes.length; turn++) {
+            codes[turn] = encodeAction(actions.get(turn));
+        }
+        return new Replay(players, cardIds, codes, score);
+    }
+
+    public static short encodeAction(Action action) {
+        try {
+            int target;
+            int hint = 0;
+            switch (action.getType()) {
+                case PLAY:
+                case DISCARD:
+                    target = action.getCard();
+                    break;
+                case HINT_COLOUR:
+                    target = action.getHintReceiver();
+                    hint = action.getColour().ordinal();
+                    break;
+                case HINT_VALUE:
+                    target = action.getHintReceiver();
+                    hint = action.getValue();
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Action type %s not recognised.", action.getType()));
+            }
+            return (short)(action.getType().ordinal() | action.getPlayer() << 2 | target << 5 | hint << 8);
+        } catch (IllegalActionException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    /* The action a code stands for in the state it was taken in, which
+     * must show every hand.
+     */
+    public static Action decodeAction(short code, State state) throws IllegalActionException {
+        ActionType type = ActionType.values()[code & 0x3];
+        int player = (code >> 2) & 0x7;
+        int target = (code >> 5) & 0x7;
+        int hint = (code >> 8) & 0x7;
+        switch (type) {
+            case PLAY:
+            case DISCARD:
+                return new Action(player, state.getName(player), type, target);
+            case HINT_COLOUR: {
+                Colour colour = Colour.values()[hint];
+                Card[] hand = state.getHand(target);
+                boolean[] hinted = new boolean[hand.length];
+                for (int i = 0; i < hand.length; i++) {
+                    hinted[i] = hand[i] != null && hand[i].getColour() == colour;
+                }
+                return new Action(player, state.getName(player), type, target, hinted, colour);
+            }
+            default: {
+                Card[] hand = state.getHand(target);
+                boolean[] hinted = new boolean[hand.length];
+                for (int i = 0; i < hand.length; i++) {
+                    hinted[i] = hand[i] != null && hand[i].getValue() == hint;
+                }
+                return new Action(player, state.getName(player), type, target, hinted, hint);
+            }
+        }
+    }
+
+    public int getNumberOfPlayers() {
+        return this._players.length;
+    }
+
+    public String[] getPlayers() {
+        return this._players.clone();
+    }
+
+    public int getScore() {
+        return this._score;
+    }
+
+    /* The number of actions taken. */
+    public int getTurns() {
+        return this._actions.length;
+    }
+
+    public short getActionCode(int turn) {
+        return this._actions[turn];
+    }
+
+    /* A fresh copy of the deck, for a game to draw from. */
+    public Stack<Card> getDeal() {
+        Stack<Card> deck = new Stack<Card>();
+        for (byte cardId : this._deal) {
+            deck.push(CardUtils.getCardById(cardId));
+        }
+        return deck;
+    }
+
+    /* Every state of the game from the deal on, each built from the last
+     * as the iteration reaches it.
+     */
+    public Iterable<State> getStates() {
+        return new Iterable<State>() {
+            @Override
+            public Iterator<State> iterator() {
+                return new Iterator<State>() {
+                    private Stack<Card> _deck = Replay.this.getDeal();
+                    private State _state;
+                    private int _turn = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this._turn <= Replay.this._actions.length;
+                    }
+
+                    @Override
+                    public State next() {
+                        if (!this.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        try {
+                            this._state = this._state == null
+                                ? new State(Replay.this._players, this._deck)
+                                : this._state.nextState(
+                                    decodeAction(Replay.this._actions[this._turn - 1], this._state),
+                                    this._deck
+                                );
+                        } catch (IllegalActionException ex) {
+                            throw new IllegalStateException(
+                                String.format("Turn %d of the replay can't be played.", this._turn),
+                                ex
+                            );
+                        }
+                        this._turn++;
+                        return this._state;
+                    }
+                };
+            }
+        };
+    }
+
+    public State getFinalState() {
+        State state = null;
+        for (State next : this.getStates()) {
+            state = next;
+        }
+        return state;
+    }
+
+    /* The size of the game once encoded, with its players as name ids. */
+    public int getEncodedSize() {
+        return 1 + 4 * this._players.length + 1 + this._deal.length + 1 + 2 + 2 * this._actions.length;
+    }
+
+    /* Writes the game at the buffer's position, with each player's name
+     * given as an id in a table kept alongside.
+     */
+    public void encode(ByteBuffer buffer, int[] playerNameIds) {
+        buffer.put((byte)this._players.length);
+        for (int nameId : playerNameIds) {
+            buffer.putInt(nameId);
+        }
+        buffer.put((byte)this._deal.length);
+        buffer.put(this._deal);
+        buffer.put((byte)this._score);
+        buffer.putShort((short)this._actions.length);
+        for (short action : this._actions) {
+            buffer.putShort(action);
+        }
+    }
+
+    public static Replay decode(ByteBuffer buffer, List<String> names) {
+        String[] players = new String[buffer.get()];
+        for (int player = 0; player < players.length; player++) {
+            players[player] = names.get(buffer.getInt());
+        }
+        byte[] deal = new byte[buffer.get() & 0xFF];
+        buffer.get(deal);
+        int score = buffer.get();
+        short[] actions = new short[buffer.getShort() & 0xFFFF];
+        for (int turn = 0; turn < actions.length; turn++) {
+            actions[turn] = buffer.getShort();
+        }
+        return new Replay(players, deal, actions, score);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("players(%d) turns(%d) score(%d)", this._players.length, this._actions.length, this._score);
+    }
+}
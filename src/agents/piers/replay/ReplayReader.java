@@ -0,0 +1,117 @@
+package agents.piers.replay;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import agents.piers.Maybe;
+import agents.piers.StateUtils;
+import agents.piers.evolution.ScoreHistogram;
+
+/* Reads back the games a ReplayRecorder wrote, in the order they were
+ * recorded. A game cut short by the recorder being killed ends the file.
+ * Run as:
+ *
+ *     ReplayReader <file> [game to print]
+ */
+public class ReplayReader implements Closeable {
+
+    private File _file;
+    private DataInputStream _in;
+    private ArrayList<String> _names = new ArrayList<>();
+    private long _games;
+    /* Where the last whole record read ends */
+    private long _position = 8;
+
+    public ReplayReader(File file) throws IOException {
+        this._file = file;
+        this._in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (this._in.readInt() != ReplayRecorder.MAGIC || this._in.readInt() != ReplayRecorder.VERSION) {
+            this._in.close();
+            throw new IOException(String.format("%s is not a version %d replay file.", file, ReplayRecorder.VERSION));
+        }
+    }
+
+    /* The next game in the file, or nothing once they've all been read. */
+    public Maybe<Replay> read() throws IOException {
+        while (true) {
+            byte[] record;
+            int kind;
+            try {
+                kind = this._in.readByte();
+                record = new byte[this._in.readInt()];
+                this._in.readFully(record);
+            } catch (EOFException ex) {
+                return new Maybe<Replay>(null);
+            }
+            this._position += 1 + 4 + record.length;
+            if (kind == ReplayRecorder.NAME_RECORD) {
+                this._names.add(new String(record, "UTF-8"));
+            } else if (kind == ReplayRecorder.GAME_RECORD) {
+                this._games++;
+                return new Maybe<Replay>(Replay.decode(ByteBuffer.wrap(record), this._names));
+            } else {
+                throw new IOException(String.format("%s has a record of unknown kind %d.", this._file, kind));
+            }
+        }
+    }
+
+    /* The player names read so far, by id. */
+    public List<String> getNames() {
+        return this._names;
+    }
+
+    public long getGames() {
+        return this._games;
+    }
+
+    /* The length of the file up to the end of the last record read. */
+    public long getPosition() {
+        return this._position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this._in.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        long gameToPrint = args.length > 1 ? Long.parseLong(args[1]) : -1;
+        ScoreHistogram[] scores = new ScoreHistogram[6];
+        long bytes = new File(args[0]).length();
+        try (ReplayReader reader = new ReplayReader(new File(args[0]))) {
+            Maybe<Replay> replay;
+            while ((replay = reader.read()).hasValue()) {
+                int numberOfPlayers = replay.getValue().getNumberOfPlayers();
+                if (scores[numberOfPlayers] == null) {
+                    scores[numberOfPlayers] = new ScoreHistogram();
+                }
+                scores[numberOfPlayers].add(replay.getValue().getScore());
+                if (reader.getGames() - 1 == gameToPrint) {
+                    System.out.println(StateUtils.formatGameHistory(replay.getValue().getFinalState()));
+                }
+            }
+            System.err.println(
+                String.format(
+                    "%s: %d games, %d names, %.1f bytes per game",
+                    args[0],
+                    reader.getGames(),
+                    reader.getNames().size(),
+                    reader.getGames() > 0 ? (double)bytes / reader.getGames() : 0.0
+                )
+            );
+        }
+        for (int numberOfPlayers = 0; numberOfPlayers < scores.length; numberOfPlayers++) {
+            if (scores[numberOfPlayers] != null) {
+                System.err.println(String.format("\tplayers(%d) %s", numberOfPlayers, scores[numberOfPlayers]));
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package agents.piers.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/* An append-only file of played games, a few hundred bytes each, which
+ * ReplayReader can play back.
+ *
+ * After a small header the file is a sequence of records, each a kind byte
+ * and a length. Game records hold a Replay. Player names (a genome's is its
+ * whole DNA) are written once, in a name record the first time they're seen,
+ * and games refer to them by the order they were written in.
+ *
+ * Games can be recorded from any number of threads. A failed write is
+ * reported rather than stopping the games being recorded.
+ */
+public class ReplayRecorder implements IReplayRecorder {
+
+    static final int MAGIC = 0x48525031;
+    static final int VERSION = 2;
+    static final byte NAME_RECORD = 0;
+    static final byte GAME_RECORD = 1;
+
+    private File _file;
+    private DataOutputStream _out;
+    private HashMap<String, Integer> _nameIds = new HashMap<>();
+    private long _games;
+
+    public ReplayRecorder(File file) throws IOException {
+        this._file = file;
+        if (file.getAbsoluteFile().getParentFile() != null && !file.getAbsoluteFile().getParentFile().exists()) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        /* Appending to an earlier recording carries on its name table,
+         * after dropping any game it was killed part way through writing.
+         */
+        boolean append = file.exists() && file.length() > 0;
+        if (append) {
+            try (ReplayReader reader = new ReplayReader(file)) {
+                while (reader.read().hasValue()) {
+                    this._games++;
+                }
+                for (String name : reader.getNames()) {
+                    this._nameIds.put(name, this._nameIds.size());
+                }
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(reader.getPosition());
+                }
+            }
+        }
+        this._out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)));
+        if (!append) {
+            this._out.writeInt(MAGIC);
+            this._out.writeInt(VERSION);
+        }
+    }
+
+    private int getNameId(String name) throws IOException {
+        Integer nameId = this._nameIds.get(name);
+        if (nameId == null) {
+            nameId = this._nameIds.size();
+            byte[] bytes = name.getBytes("UTF-8");
+            this._out.writeByte(NAME_RECORD);
+            this._out.writeInt(bytes.length);
+            this._out.write(bytes);
+            this._nameIds.put(name, nameId);
+        }
+        return nameId;
+    }
+
+    @Override
+    public synchronized void record(Replay replay) {
+        try {
+            String[] players = replay.getPlayers();
+            int[] playerNameIds = new int[players.length];
+            for (int player = 0; player < players.length; player++) {
+                playerNameIds[player] = this.getNameId(players[player]);
+            }
+            ByteBuffer record = ByteBuffer.allocate(replay.getEncodedSize());
+            replay.encode(record, playerNameIds);
+            this._out.writeByte(GAME_RECORD);
+            this._out.writeInt(record.capacity());
+            this._out.write(record.array());
+            this._games++;
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    public synchronized long getGames() {
+        return this._games;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this._out.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s games(%d) names(%d)", this._file, this._games, this._nameIds.size());
+    }
+}
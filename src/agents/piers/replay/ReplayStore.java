@@ -0,0 +1,255 @@
+package agents.piers.replay;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import agents.piers.Func;
+import agents.piers.StateUtils;
+import agents.piers.evolution.ScoreHistogram;
+
+/* A directory of recorded games that can be searched without decoding them,
+ * as a ReplayStoreWriter left it.
+ *
+ * Games are kept in segment files, each with an index of one INDEX_ENTRY_SIZE
+ * entry per game giving where the game is in the segment, its score, number
+ * of players, first player's name id and number of turns. Every file is
+ * memory-mapped, so a scan reads the indexes straight out of the page cache
+ * and only the games it asks for are decoded. Player names are in a table
+ * shared by all the segments. Run as:
+ *
+ *     ReplayStore <directory> [players|-] [below score|-] [game to print]
+ */
+public class ReplayStore {
+
+    static final String NAMES_FILE_NAME = "names.bin";
+    /* Offset, length, name id, turns, score and number of players */
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    private ArrayList<String> _names;
+    private ArrayList<MappedByteBuffer> _segments = new ArrayList<>();
+    private ArrayList<MappedByteBuffer> _indexes = new ArrayList<>();
+    /* The number of the first game in each segment, then the total */
+    private long[] _firstGames;
+
+    static File getSegmentFile(File directory, int segment) {
+        return new File(directory, String.format("segment-%05d.games", segment));
+    }
+
+    static File getIndexFile(File directory, int segment) {
+        return new File(directory, String.format("segment-%05d.index", segment));
+    }
+
+    /* The names in the table, leaving out one cut short by a crash. */
+    static ArrayList<String> readNames(File file) throws IOException {
+        ArrayList<String> names = new ArrayList<>();
+        if (!file.exists()) {
+            return names;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                names.add(new String(name, "UTF-8"));
+            }
+        } catch (EOFException ex) {
+            return names;
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /* Only the games fully written when it's opened are seen. */
+    public ReplayStore(File directory) throws IOException {
+        this._names = readNames(new File(directory, NAMES_FILE_NAME));
+        ArrayList<Long> firstGames = new ArrayList<>();
+        long games = 0;
+        for (int segment = 0; getIndexFile(directory, segment).exists(); segment++) {
+            File segmentFile = getSegmentFile(directory, segment);
+            MappedByteBuffer index = map(getIndexFile(directory, segment), getIndexFile(directory, segment).length());
+            int entries = index.capacity() / INDEX_ENTRY_SIZE;
+            /* The index can get ahead of the games if writing was cut short */
+            while (entries > 0
+                    && (long)index.getInt((entries - 1) * INDEX_ENTRY_SIZE) + index.getInt((entries - 1) * INDEX_ENTRY_SIZE + 4)
+                        > segmentFile.length()) {
+                entries--;
+            }
+            index.limit(entries * INDEX_ENTRY_SIZE);
+            firstGames.add(games);
+            this._indexes.add(index);
+            this._segments.add(map(segmentFile, segmentFile.length()));
+            games += entries;
+        }
+        this._firstGames = new long[firstGames.size() + 1];
+        for (int segment = 0; segment < firstGames.size(); segment++) {
+            this._firstGames[segment] = firstGames.get(segment);
+        }
+        this._firstGames[firstGames.size()] = games;
+    }
+
+    /* A position in the store, moved through the games in order with
+     * next(). Reading a game's details doesn't copy or decode it.
+     */
+    public class Cursor {
+        private int _segment = 0;
+        private int _entry = -1;
+
+        public boolean next() {
+            this._entry++;
+            while (this._segment < ReplayStore.this._indexes.size()
+                    && this._entry >= ReplayStore.this.getEntries(this._segment)) {
+                this._segment++;
+                this._entry = 0;
+            }
+            return this._segment < ReplayStore.this._indexes.size();
+        }
+
+        private void seek(long game) {
+            int segment = 0;
+            while (ReplayStore.this._firstGames[segment + 1] <= game) {
+                segment++;
+            }
+            this._segment = segment;
+            this._entry = (int)(game - ReplayStore.this._firstGames[segment]);
+        }
+
+        private int getEntryOffset() {
+            return this._entry * INDEX_ENTRY_SIZE;
+        }
+
+        /* The game's number in the whole store, from 0. */
+        public long getGame() {
+            return ReplayStore.this._firstGames[this._segment] + this._entry;
+        }
+
+        public int getScore() {
+            return ReplayStore.this._indexes.get(this._segment).get(this.getEntryOffset() + 14);
+        }
+
+        public int getNumberOfPlayers() {
+            return ReplayStore.this._indexes.get(this._segment).get(this.getEntryOffset() + 15);
+        }
+
+        /* The first player's name id, which in self-play names every
+         * player.
+         */
+        public int getAgentId() {
+            return ReplayStore.this._indexes.get(this._segment).getInt(this.getEntryOffset() + 8);
+        }
+
+        public int getTurns() {
+            return ReplayStore.this._indexes.get(this._segment).getShort(this.getEntryOffset() + 12) & 0xFFFF;
+        }
+
+        public Replay getReplay() {
+            ByteBuffer index = ReplayStore.this._indexes.get(this._segment);
+            int offset = index.getInt(this.getEntryOffset());
+            int length = index.getInt(this.getEntryOffset() + 4);
+            ByteBuffer record = ReplayStore.this._segments.get(this._segment).duplicate();
+            record.position(offset);
+            record.limit(offset + length);
+            return Replay.decode(record, ReplayStore.this._names);
+        }
+    }
+
+    /* A cursor before the first game. */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public long getGames() {
+        return this._firstGames[this._firstGames.length - 1];
+    }
+
+    public int getSegments() {
+        return this._indexes.size();
+    }
+
+    int getEntries(int segment) {
+        return this._indexes.get(segment).limit() / INDEX_ENTRY_SIZE;
+    }
+
+    public List<String> getNames() {
+        return this._names;
+    }
+
+    /* The id games played by an agent of this name have, or -1. */
+    public int getAgentId(String name) {
+        return this._names.indexOf(name);
+    }
+
+    /* A cursor at the game, numbered from 0. */
+    public Cursor at(long game) {
+        if (game < 0 || game >= this.getGames()) {
+            throw new IndexOutOfBoundsException(
+                String.format("Game %d is not in a store of %d games.", game, this.getGames())
+            );
+        }
+        Cursor cursor = new Cursor();
+        cursor.seek(game);
+        return cursor;
+    }
+
+    public Replay get(long game) {
+        return this.at(game).getReplay();
+    }
+
+    /* The numbers of the games matching the filter, which is given a
+     * cursor at each game in turn.
+     */
+    public ArrayList<Long> find(Func<Cursor, Boolean> filter) {
+        ArrayList<Long> games = new ArrayList<>();
+        Cursor cursor = new Cursor();
+        while (cursor.next()) {
+            if (filter.apply(cursor)) {
+                games.add(cursor.getGame());
+            }
+        }
+        return games;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("games(%d) segments(%d) names(%d)", this.getGames(), this.getSegments(), this._names.size());
+    }
+
+    public static void main(String[] args) throws IOException {
+        ReplayStore store = new ReplayStore(new File(args[0]));
+        int numberOfPlayers = args.length > 1 && !args[1].equals("-") ? Integer.parseInt(args[1]) : -1;
+        int belowScore = args.length > 2 && !args[2].equals("-") ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+        long gameToPrint = args.length > 3 ? Long.parseLong(args[3]) : -1;
+
+        long startNanos = System.nanoTime();
+        ArrayList<Long> games = store.find(new Func<Cursor, Boolean>() {
+            @Override
+            public Boolean apply(Cursor cursor) {
+                return (numberOfPlayers == -1 || cursor.getNumberOfPlayers() == numberOfPlayers)
+                    && cursor.getScore() < belowScore;
+            }
+        });
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        ScoreHistogram scores = new ScoreHistogram();
+        for (long game : games) {
+            scores.add(store.at(game).getScore());
+        }
+        System.err.println(String.format("%s: %s", args[0], store));
+        System.err.println(String.format("\tMatching: %s in %.3fs", scores, seconds));
+        if (gameToPrint >= 0) {
+            System.out.println(StateUtils.formatGameHistory(store.get(gameToPrint).getFinalState()));
+        }
+    }
+}
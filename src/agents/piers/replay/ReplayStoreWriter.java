@@ -0,0 +1,187 @@
+package agents.piers.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/* Adds games to a ReplayStore's directory, carrying on after the games
+ * already there.
+ *
+ * Each game is written to the last segment and then given an entry in its
+ * index. Once a segment would grow past the segment size, a new one is
+ * started, so no file gets too big to map. A name is added to the table,
+ * and flushed, before the first game to use it. So whatever point writing
+ * is stopped at, the store holds every game with a whole index entry, and
+ * reopening it for writing drops anything after the last such game.
+ *
+ * Games can be recorded from any number of threads. A failed write is
+ * reported rather than stopping the games being recorded.
+ */
+public class ReplayStoreWriter implements IReplayRecorder {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 1L << 28;
+    /* Offsets into a segment are ints, and a mapping can't pass 2GB */
+    public static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private File _directory;
+    private long _segmentBytes;
+    private int _segment;
+    private DataOutputStream _games;
+    private DataOutputStream _index;
+    private long _segmentSize;
+    private DataOutputStream _names;
+    private HashMap<String, Integer> _nameIds = new HashMap<>();
+    private long _gameCount;
+
+    public ReplayStoreWriter(File directory, long segmentBytes) throws IOException {
+        if (segmentBytes <= 0 || segmentBytes > MAX_SEGMENT_BYTES) {
+            throw new IllegalArgumentException(
+                String.format("Segments can hold between 1 and %d bytes, not %d.", MAX_SEGMENT_BYTES, segmentBytes)
+            );
+        }
+        this._directory = directory;
+        this._segmentBytes = segmentBytes;
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+
+        File namesFile = new File(directory, ReplayStore.NAMES_FILE_NAME);
+        long namesLength = 0;
+        for (String name : ReplayStore.readNames(namesFile)) {
+            this._nameIds.put(name, this._nameIds.size());
+            namesLength += 4 + name.getBytes("UTF-8").length;
+        }
+        truncate(namesFile, namesLength);
+        this._names = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(namesFile, true)));
+
+        /* Carry on from what a reader would see, cutting the last segment
+         * back to it. The indexes are read rather than mapped as a
+         * ReplayStore would, since a mapped file can't be cut short on
+         * every platform.
+         */
+        this._segment = 0;
+        this._gameCount = 0;
+        long segmentSize = 0;
+        int entries = 0;
+        for (int segment = 0; ReplayStore.getIndexFile(directory, segment).exists(); segment++) {
+            File segmentFile = ReplayStore.getSegmentFile(directory, segment);
+            try (RandomAccessFile raf = new RandomAccessFile(ReplayStore.getIndexFile(directory, segment), "r");
+                    FileChannel index = raf.getChannel()) {
+                entries = (int)(index.size() / ReplayStore.INDEX_ENTRY_SIZE);
+                segmentSize = 0;
+                /* The index can get ahead of the games if writing was cut short */
+                while (entries > 0 && (segmentSize = getEntryEnd(index, entries - 1)) > segmentFile.length()) {
+                    entries--;
+                    segmentSize = 0;
+                }
+            }
+            this._segment = segment;
+            this._gameCount += entries;
+        }
+        this.openSegment(segmentSize, (long)entries * ReplayStore.INDEX_ENTRY_SIZE);
+    }
+
+    public ReplayStoreWriter(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /* Where the entry's game ends in the segment. */
+    private static long getEntryEnd(FileChannel index, int entry) throws IOException {
+        ByteBuffer offsetAndLength = ByteBuffer.allocate(8);
+        while (offsetAndLength.hasRemaining()) {
+            if (index.read(offsetAndLength, (long)entry * ReplayStore.INDEX_ENTRY_SIZE + offsetAndLength.position()) < 0) {
+                throw new IOException(String.format("Entry %d is past the end of the index.", entry));
+            }
+        }
+        return (long)offsetAndLength.getInt(0) + offsetAndLength.getInt(4);
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        if (file.exists() && file.length() > length) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length);
+            }
+        }
+    }
+
+    private void openSegment(long segmentSize, long indexSize) throws IOException {
+        File segmentFile = ReplayStore.getSegmentFile(this._directory, this._segment);
+        File indexFile = ReplayStore.getIndexFile(this._directory, this._segment);
+        truncate(segmentFile, segmentSize);
+        truncate(indexFile, indexSize);
+        this._games = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile, true)));
+        this._index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+        this._segmentSize = segmentSize;
+    }
+
+    private int getNameId(String name) throws IOException {
+        Integer nameId = this._nameIds.get(name);
+        if (nameId == null) {
+            nameId = this._nameIds.size();
+            byte[] bytes = name.getBytes("UTF-8");
+            this._names.writeInt(bytes.length);
+            this._names.write(bytes);
+            this._names.flush();
+            this._nameIds.put(name, nameId);
+        }
+        return nameId;
+    }
+
+    @Override
+    public synchronized void record(Replay replay) {
+        try {
+            String[] players = replay.getPlayers();
+            int[] playerNameIds = new int[players.length];
+            for (int player = 0; player < players.length; player++) {
+                playerNameIds[player] = this.getNameId(players[player]);
+            }
+            ByteBuffer record = ByteBuffer.allocate(replay.getEncodedSize());
+            replay.encode(record, playerNameIds);
+            if (this._segmentSize > 0 && this._segmentSize + record.capacity() > this._segmentBytes) {
+                this._games.close();
+                this._index.close();
+                this._segment++;
+                this.openSegment(0, 0);
+            }
+            this._games.write(record.array());
+            this._index.writeInt((int)this._segmentSize);
+            this._index.writeInt(record.capacity());
+            this._index.writeInt(playerNameIds[0]);
+            this._index.writeShort(replay.getTurns());
+            this._index.writeByte(replay.getScore());
+            this._index.writeByte(players.length);
+            this._segmentSize += record.capacity();
+            this._gameCount++;
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    public synchronized long getGames() {
+        return this._gameCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this._games.close();
+        this._index.close();
+        this._names.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "%s games(%d) segments(%d) names(%d)",
+            this._directory,
+            this._gameCount,
+            this._segment + 1,
+            this._nameIds.size()
+        );
+    }
+}
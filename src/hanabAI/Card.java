@@ -3,6 +3,7 @@ package hanabAI;
 import java.util.Stack;
 
 import agents.piers.CardUtils;
+import agents.piers.RandomUtils;
 
 /**An immutable class for representing Hanabi cards**/
 public class Card{
@@ -57,8 +58,21 @@ public class Card{
    * @return a stack of Hanabi cards in random order
    **/
   public static Stack<Card> shuffledDeck(){
+    return shuffledDeck(new java.util.Random(RandomUtils.nextLong()));
+  }
+
+  /**
+   * Gives the same shuffled deck for the same seed, so a deal can be replayed.
+   * @param seed the seed for the shuffle
+   * @return a stack of Hanabi cards in an order determined by the seed
+   **/
+  public static Stack<Card> shuffledDeck(long seed){
+    return shuffledDeck(new java.util.Random(seed));
+  }
+
+  //swaps pairs of cards chosen by r
+  private static Stack<Card> shuffledDeck(java.util.Random r){
     Card[] deck = getDeck();
-    java.util.Random r = new java.util.Random();
     for(int i = 0; i<1000; i++){
       int a = r.nextInt(50);
       int b = r.nextInt(50);
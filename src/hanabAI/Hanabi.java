@@ -12,6 +12,8 @@ import agents.piers.PiersAgent;
 import agents.piers.StateUtils;
 import agents.piers.evolution.EvolutionRunner;
 import agents.piers.evolution.Genome;
+import agents.piers.replay.IReplayRecorder;
+import agents.piers.replay.Replay;
 
 /**
  * A class for running a single game of Hanabi.
@@ -23,15 +25,37 @@ public class Hanabi{
   private Agent[] players;
   private State state;
   private java.util.Stack<Card> deck;
+  private Card[] deal;
 
   /**
    * Initilaises the game.
    * @throws IllegalArgumentException if there are not the right number of player
    * */
   public Hanabi(Agent[] agents) throws IllegalArgumentException{
+    this(agents, Card.shuffledDeck());
+  }
+
+  /**
+   * Initialises the game with a deal determined by a seed, so that different agents can be compared on the same deal.
+   * @param agents the players
+   * @param dealSeed the seed used to shuffle the deck
+   * @throws IllegalArgumentException if there are not the right number of player
+   * */
+  public Hanabi(Agent[] agents, long dealSeed) throws IllegalArgumentException{
+    this(agents, Card.shuffledDeck(dealSeed));
+  }
+
+  /**
+   * Initialises the game with a given deck, such as a deal from a corpus, which the game will draw from.
+   * @param agents the players
+   * @param deck the deck, with the first card to be dealt on top
+   * @throws IllegalArgumentException if there are not the right number of player
+   * */
+  public Hanabi(Agent[] agents, java.util.Stack<Card> deck) throws IllegalArgumentException{
     //check agents between 2 and 5
     players = agents;
-    deck = Card.shuffledDeck();
+    this.deck = deck;
+    deal = deck.toArray(new Card[deck.size()]);
     String[] s = new String[agents.length];
     for(int i=0; i<s.length; i++)s[i] = agents[i].toString();
     state = new State(s, deck);
@@ -79,6 +103,30 @@ public class Hanabi{
     }
   }
 
+  /**
+   * Plays the game, and records it to be replayed later.
+   * The agents will execute their strategies until the game is complete and a number is returned.
+   * @param recorder the recorder to add the game to, with the actions played before any illegal one
+   * @return the score of the game
+   **/
+  public int play(IReplayRecorder recorder){
+    ArrayList<Action> actions = new ArrayList<Action>();
+    int score;
+    try{
+      while(!state.gameOver()){
+        int p = state.getNextPlayer();
+        State localState = state.hideHand(p);
+        Action action = players[p].doAction(localState);
+        state = state.nextState(action,deck);
+        actions.add(action);
+      }
+      score = state.getScore();
+    }
+    catch(IllegalActionException e){score = -1;}
+    recorder.record(Replay.of(state.getPlayers(), deal, actions, score));
+    return score;
+  }
+
   public static String critique(int score){
     if(score==0) return "Tragic: The pyrotechnicians are obliterated by their own incompetence.\n";
     if(score<6) return "Horrible: boos from the crowd.\n";
@@ -35,6 +35,12 @@ public class State implements Cloneable{
   private int nextPlayer=-1;
   /**The fnal play of the game (for when the deck runs out)**/
   private int finalAction=-1;
+  /**The Zobrist key of the state with every hand visible, maintained incrementally by nextState**/
+  private long key=0;
+  /**For each slot of each players hand, a bit mask of the card ids the hints they have been given leave it could be**/
+  private int[][] knowledge;
+  /**The Zobrist key of what every player knows about their own hand, maintained incrementally by nextState**/
+  private long knowledgeKey=0;
 
   /**A constructor for the first state in the game
    * @param players the names of the players in the game, in an array by index
@@ -57,6 +63,10 @@ public class State implements Cloneable{
     observer = -1;
     nextPlayer = 0;
     finalAction = -1;
+    key = computeZobristKey(-1);
+    knowledge = new int[hands.length][hands[0].length];
+    for(int[] slots: knowledge) Arrays.fill(slots, ALL_CARDS);
+    knowledgeKey = computeKnowledgeKey();
   }
 
   /**
@@ -76,11 +86,17 @@ public class State implements Cloneable{
        Card c = hands[action.getPlayer()][action.getCard()];
        Stack<Card> fw = fireworks.get(c.getColour());
        if((fw.isEmpty() && c.getValue() == 1) || (!fw.isEmpty() && fw.peek().getValue()==c.getValue()-1)){
+         s.key ^= Zobrist.FIREWORK[c.getColour().ordinal()][fw.size()] ^ Zobrist.FIREWORK[c.getColour().ordinal()][fw.size()+1];
          s.fireworks.get(c.getColour()).push(c);
-         if(s.fireworks.get(c.getColour()).size()==5 && s.hints<8) s.hints++;
+         if(s.fireworks.get(c.getColour()).size()==5 && s.hints<8){
+           s.key ^= Zobrist.HINTS[s.hints] ^ Zobrist.HINTS[s.hints+1];
+           s.hints++;
+         }
        }
        else{
+         s.key ^= discardKey(c);
          s.discards.push(c);
+         s.key ^= Zobrist.FUSE[s.fuse] ^ Zobrist.FUSE[s.fuse-1];
          s.fuse--;
        }
        if(!deck.isEmpty()) s.hands[action.getPlayer()][action.getCard()] = deck.pop();
@@ -91,29 +107,110 @@ public class State implements Cloneable{
        break;
      case DISCARD:
        c = hands[action.getPlayer()][action.getCard()];
+       s.key ^= discardKey(c);
        s.discards.push(c);
        if(!deck.isEmpty()) s.hands[action.getPlayer()][action.getCard()] = deck.pop();
        if(deck.isEmpty()){
         if(finalAction==-1) s.finalAction = order+players.length;
         s.hands[action.getPlayer()][action.getCard()] = null;
        }
-       if(hints<8) s.hints++;
+       if(hints<8){
+         s.key ^= Zobrist.HINTS[s.hints] ^ Zobrist.HINTS[s.hints+1];
+         s.hints++;
+       }
        break;
      case HINT_COLOUR:
+       s.key ^= Zobrist.HINTS[s.hints] ^ Zobrist.HINTS[s.hints-1];
        s.hints--;
+       s.applyHint(action.getHintReceiver(), action.getHintedCards(), colourMask(action.getColour()));
        break;
      case HINT_VALUE:
+       s.key ^= Zobrist.HINTS[s.hints] ^ Zobrist.HINTS[s.hints-1];
        s.hints--;
+       s.applyHint(action.getHintReceiver(), action.getHintedCards(), valueMask(action.getValue()));
        break;
      default: break;
    }
+   if(action.getType()==ActionType.PLAY || action.getType()==ActionType.DISCARD){
+     long[] slotKeys = Zobrist.HAND[action.getPlayer()][action.getCard()];
+     s.key ^= slotKeys[Zobrist.cardId(hands[action.getPlayer()][action.getCard()])];
+     s.key ^= slotKeys[Zobrist.cardId(s.hands[action.getPlayer()][action.getCard()])];
+     //nothing is known about the card drawn to replace it
+     s.setKnowledge(action.getPlayer(), action.getCard(), ALL_CARDS);
+   }
+   s.key ^= Zobrist.finalActionKey(finalAction) ^ Zobrist.finalActionKey(s.finalAction);
+   s.key ^= Zobrist.orderKey(order) ^ Zobrist.orderKey(order+1);
    s.order++;
    s.previousAction = action;
    s.nextPlayer = (nextPlayer+1)%players.length;
    s.previousState = this;
+   assert s.key == s.computeZobristKey(-1) : "Incremental Zobrist key differs from recomputation";
+   assert s.knowledgeKey == s.computeKnowledgeKey() : "Incremental knowledge key differs from recomputation";
    return s;
   }
 
+  /**A mask with a bit set for every card id**/
+  private static final int ALL_CARDS = (1<<Zobrist.CARD_TYPES)-1;
+
+  //the card ids of the given colour
+  private static int colourMask(Colour colour){
+    return 0x1F<<(colour.ordinal()*5);
+  }
+
+  //the card ids of the given value
+  private static int valueMask(int value){
+    int mask = 0;
+    for(Colour c: Colour.values()) mask |= 1<<(c.ordinal()*5+value-1);
+    return mask;
+  }
+
+  //narrows what the receiver knows about each card to the hinted cards, or to the rest
+  private void applyHint(int receiver, boolean[] hinted, int hintMask){
+    for(int i = 0; i<hinted.length; i++)
+      setKnowledge(receiver, i, knowledge[receiver][i] & (hinted[i]?hintMask:~hintMask));
+  }
+
+  private void setKnowledge(int player, int slot, int possibleCards){
+    knowledgeKey ^= Zobrist.knowledgeKey(player, slot, knowledge[player][slot]) ^ Zobrist.knowledgeKey(player, slot, possibleCards);
+    knowledge[player][slot] = possibleCards;
+  }
+
+  //the knowledge key computed from scratch
+  private long computeKnowledgeKey(){
+    long k = 0;
+    for(int i = 0; i<knowledge.length; i++)
+      for(int j = 0; j<knowledge[i].length; j++)
+        k ^= Zobrist.knowledgeKey(i, j, knowledge[i][j]);
+    return k;
+  }
+
+  //the change in key from adding the card to the discard pile
+  private long discardKey(Card c){
+    int count = 0;
+    for(Card d: discards) if(d.equals(c)) count++;
+    return Zobrist.DISCARDS[Zobrist.cardId(c)][count] ^ Zobrist.DISCARDS[Zobrist.cardId(c)][count+1];
+  }
+
+  /**
+   * Computes the Zobrist key of the state from scratch.
+   * The hand of the hidden player is hashed as if every slot were empty.
+   * @param hidden the index of the player whose hand is hidden, or -1 for none
+   * @return the exclusive-or of the keys of each component of the state
+   **/
+  private long computeZobristKey(int hidden){
+    long k = 0;
+    for(Colour c: Colour.values()) k ^= Zobrist.FIREWORK[c.ordinal()][fireworks.get(c).size()];
+    int[] counts = new int[Zobrist.CARD_TYPES];
+    for(Card c: discards) counts[Zobrist.cardId(c)]++;
+    for(int i = 0; i<counts.length; i++) k ^= Zobrist.DISCARDS[i][counts[i]];
+    for(int i = 0; i<hands.length; i++)
+      for(int j = 0; j<hands[i].length; j++)
+        k ^= Zobrist.HAND[i][j][i==hidden?Zobrist.NO_CARD:Zobrist.cardId(hands[i][j])];
+    k ^= Zobrist.HINTS[hints] ^ Zobrist.FUSE[fuse];
+    k ^= Zobrist.orderKey(order) ^ Zobrist.finalActionKey(finalAction);
+    return k;
+  }
+
   /**
    *A method to create a local state from a global state.
    *That is, if there is no current observer, the specified observer will have their hand hidden from them.
@@ -263,6 +360,42 @@ public class State implements Cloneable{
 
 
 
+  /**
+   * Gets the 64-bit Zobrist key of the state.
+   * Covers the fireworks, discard pile, hint and fuse tokens, hands, order and final action index.
+   * If the state has an observer, their hand is hashed as if every slot were empty,
+   * so the key reveals nothing about it.
+   * @return the key of the state
+   **/
+  public long getZobristKey(){
+    if(observer==-1) return key;
+    long k = key;
+    for(int j = 0; j<hands[observer].length; j++)
+      k ^= Zobrist.HAND[observer][j][Zobrist.cardId(hands[observer][j])] ^ Zobrist.HAND[observer][j][Zobrist.NO_CARD];
+    return k;
+  }
+
+  /**
+   * Recomputes the Zobrist key of the state from scratch, for checking the incremental key.
+   * @return the same value as getZobristKey()
+   **/
+  public long recomputeZobristKey(){return computeZobristKey(observer);}
+
+  /**
+   * Gets the card ids a player could work out one of their cards might be, from the hints they have been given.
+   * Since hints are public, every player knows this about everyone.
+   * @param player the index of the player
+   * @param slot the position of the card in their hand
+   * @return a bit mask with bit i set if the card could have card id i
+   **/
+  public int getPossibleCards(int player, int slot){return knowledge[player][slot];}
+
+  /**
+   * Gets the key of what every player knows about their own hand from the hints they have been given.
+   * @return the exclusive-or of Zobrist.knowledgeKey for every slot of every hand
+   **/
+  public long getKnowledgeKey(){return knowledgeKey;}
+
   /**
    * Gets the observer, or -1 if global state
    * @return the agent index of the observer, or -1 if that state is Global
@@ -321,6 +454,8 @@ public class State implements Cloneable{
       s.discards = (Stack<Card>)discards.clone();
       s.hands = (Card[][]) hands.clone();
       for(int i = 0; i<hands.length; i++) s.hands[i] = (Card[])s.hands[i].clone();
+      s.knowledge = knowledge.clone();
+      for(int i = 0; i<knowledge.length; i++) s.knowledge[i] = knowledge[i].clone();
       s.fireworks = (Map<Colour,Stack<Card>>)((HashMap)fireworks).clone();
       for(Colour c: Colour.values()) s.fireworks.put(c,(Stack<Card>)fireworks.get(c).clone());
       return s;
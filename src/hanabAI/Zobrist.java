@@ -0,0 +1,114 @@
+package hanabAI;
+
+/**
+ * Random 64-bit keys used to hash game states.
+ * A state's key is the exclusive-or of the keys of each of its components,
+ * so it can be updated incrementally as individual components change.
+ * The keys are generated from a fixed seed, so hashes are stable between runs.
+ **/
+public class Zobrist{
+
+  /**The number of distinct cards (colour and value) in a deck**/
+  public static final int CARD_TYPES = 25;
+  /**The card id used for an empty or hidden slot in a hand**/
+  public static final int NO_CARD = CARD_TYPES;
+
+  /**Keys for each card id (or no card) in each slot of each players hand**/
+  public static final long[][][] HAND = new long[5][5][CARD_TYPES+1];
+  /**Keys for the number of copies of each card id in the discard pile**/
+  public static final long[][] DISCARDS = new long[CARD_TYPES][4];
+  /**Keys for the height of each colours firework**/
+  public static final long[][] FIREWORK = new long[5][6];
+  /**Keys for the number of hint tokens**/
+  public static final long[] HINTS = new long[9];
+  /**Keys for the number of fuse tokens**/
+  public static final long[] FUSE = new long[4];
+  /**Keys for the order of the state, modulo the table size**/
+  public static final long[] ORDER = new long[256];
+  /**Keys for the final action index (offset by one, so -1 maps to 0), modulo the table size**/
+  public static final long[] FINAL_ACTION = new long[256];
+  /**Keys for the index of the player to move**/
+  public static final long[] NEXT_PLAYER = new long[5];
+  /**Keys for the number of turns left once the deck is empty (offset by one, so 0 means the deck is not empty)**/
+  public static final long[] TURNS_LEFT = new long[7];
+
+  private static long seed = 0x2545F4914F6CDD1DL;
+
+  static{
+    for(long[][] player: HAND)
+      for(long[] slot: player)
+        for(int i = 0; i<slot.length; i++) slot[i] = nextKey();
+    for(long[] counts: DISCARDS)
+      for(int i = 0; i<counts.length; i++) counts[i] = nextKey();
+    for(long[] heights: FIREWORK)
+      for(int i = 0; i<heights.length; i++) heights[i] = nextKey();
+    for(int i = 0; i<HINTS.length; i++) HINTS[i] = nextKey();
+    for(int i = 0; i<FUSE.length; i++) FUSE[i] = nextKey();
+    for(int i = 0; i<ORDER.length; i++) ORDER[i] = nextKey();
+    for(int i = 0; i<FINAL_ACTION.length; i++) FINAL_ACTION[i] = nextKey();
+    for(int i = 0; i<NEXT_PLAYER.length; i++) NEXT_PLAYER[i] = nextKey();
+    for(int i = 0; i<TURNS_LEFT.length; i++) TURNS_LEFT[i] = nextKey();
+  }
+
+  //the next key in a SplitMix64 sequence
+  private static long nextKey(){
+    seed += 0x9E3779B97F4A7C15L;
+    return mix(seed);
+  }
+
+  /**
+   * Gives the id of a card, from 0 to 24, or NO_CARD for null.
+   * @param c the card
+   * @return the colour ordinal times five plus the value less one
+   **/
+  public static int cardId(Card c){
+    return c==null?NO_CARD:c.getColour().ordinal()*5+c.getValue()-1;
+  }
+
+  /**
+   * Gives the key for the order of a state.
+   * @param order the order of the state
+   * @return the key for that order
+   **/
+  public static long orderKey(int order){return ORDER[order&255];}
+
+  /**
+   * Gives the key for the final action index of a state.
+   * @param finalAction the final action index, or -1 if the deck is not empty
+   * @return the key for that index
+   **/
+  public static long finalActionKey(int finalAction){return FINAL_ACTION[(finalAction+1)&255];}
+
+  /**
+   * Gives the key for the number of turns left in the game.
+   * @param order the order of the state
+   * @param finalAction the final action index, or -1 if the deck is not empty
+   * @return the key for the number of turns left
+   **/
+  public static long turnsLeftKey(int order, int finalAction){
+    return TURNS_LEFT[finalAction==-1?0:Math.min(finalAction-order+1, TURNS_LEFT.length-1)];
+  }
+
+  /**
+   * Gives the key for what a player knows about one of their cards.
+   * @param player the index of the player
+   * @param slot the position of the card in their hand
+   * @param possibleCards a bit mask with bit i set if the card could have card id i
+   * @return the key for that knowledge
+   **/
+  public static long knowledgeKey(int player, int slot, int possibleCards){
+    return mix(HAND[player][slot][NO_CARD] ^ possibleCards);
+  }
+
+  /**
+   * Scrambles a 64-bit value (the SplitMix64 finaliser).
+   * Used to derive keys for components with too many values for a table.
+   * @param z the value to scramble
+   * @return a well mixed 64-bit value
+   **/
+  public static long mix(long z){
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}